@@ -0,0 +1,51 @@
+package com.gdetotut.samples.jundo.javafx.bench;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+
+/**
+ * Shared setup for the benchmarks: a stack whose local contexts are a headless {@link ShapeState}.
+ * <p>No controls, scene or FX toolkit are involved, so the numbers are those of the commands and the stack alone.
+ */
+final class BenchFixture {
+
+    static final String SUBJ = "bench";
+
+    private BenchFixture() {
+    }
+
+    static UndoStack newStack() {
+        UndoStack stack = new UndoStack(SUBJ, null);
+        registerContexts(stack);
+        return stack;
+    }
+
+    static void registerContexts(UndoStack stack) {
+        new ShapeState().register(stack, new Resources_V1());
+    }
+
+    /**
+     * Command number {@code i} of a stream where each property is changed {@code runLength} times in a row,
+     * as a slider drag does. Consecutive commands of one run merge.
+     */
+    static UndoCommand sliderCommand(UndoStack stack, long i, int runLength) {
+        BaseTab.UndoBulk.DoubleProp prop = PROPS[(int) ((i / runLength) % PROPS.length)];
+        double v = 20 + (i % 180);
+        return new BaseTab.UndoBulk.DoublePropertyUndo(stack, null, prop.ordinal() + 1, prop, v, v + 1);
+    }
+
+    /**
+     * Fills the stack with {@code size} commands that never merge with each other.
+     */
+    static void fill(UndoStack stack, int size) {
+        for (int i = 0; i < size; ++i) {
+            stack.push(sliderCommand(stack, i, 1));
+        }
+    }
+
+    private static final BaseTab.UndoBulk.DoubleProp[] PROPS = BaseTab.UndoBulk.DoubleProp.values();
+
+}
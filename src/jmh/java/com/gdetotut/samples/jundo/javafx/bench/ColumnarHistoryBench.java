@@ -0,0 +1,64 @@
+package com.gdetotut.samples.jundo.javafx.bench;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.io.ColumnarHistory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same history as an {@link UndoStack} and as a {@link ColumnarHistory}: a color change followed by {@code size}
+ * slider commands, so finding the last color change scans the whole history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ColumnarHistoryBench {
+
+    @Param({"10000", "100000", "1000000"})
+    int size;
+
+    private UndoStack stack;
+
+    private ColumnarHistory columns;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stack = BenchFixture.newStack();
+        stack.push(new ColorUndo(stack, null, 0, 0xff0000ff, 0x00ff00ff));
+        BenchFixture.fill(stack, size);
+        columns = ColumnarHistory.of(stack, ShapeContext.of(stack));
+    }
+
+    @Benchmark
+    public int stackLastColor() {
+        for (int i = stack.getIdx() - 1; i >= 0; --i) {
+            if (stack.getCommand(i) instanceof ColorUndo) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int columnsLastColor() {
+        return columns.lastIndexOf(ColumnarHistory.COLOR, columns.getIdx());
+    }
+
+    @Benchmark
+    public int columnsUndoRedoSweep() {
+        while (columns.canUndo()) {
+            columns.undo();
+        }
+        while (columns.canRedo()) {
+            columns.redo();
+        }
+        return columns.getIdx();
+    }
+
+}
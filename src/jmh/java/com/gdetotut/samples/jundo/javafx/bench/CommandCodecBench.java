@@ -0,0 +1,119 @@
+package com.gdetotut.samples.jundo.javafx.bench;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.codec.CommandCodec;
+import com.gdetotut.samples.jundo.javafx.codec.CompactCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Command payloads in {@link CompactCodec} blocks, in fixed-width {@link CommandCodec} form,
+ * and through {@link ObjectOutputStream} + GZIP as {@code UndoPacket} stores them.
+ * <p>Encoded size per command is printed at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CommandCodecBench {
+
+    @Param({"10000", "100000"})
+    int size;
+
+    private UndoStack stack;
+
+    private byte[] compact;
+
+    private byte[] fixed;
+
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stack = BenchFixture.newStack();
+        BenchFixture.fill(stack, size);
+        compact = encodeCompact();
+        fixed = encodeFixed();
+        serialized = encodeSerialized();
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%nbytes per command: compact %.2f, fixed %.2f, serialized+gzip %.2f%n",
+                (double) compact.length / size, (double) fixed.length / size, (double) serialized.length / size);
+    }
+
+    @Benchmark
+    public byte[] encodeCompact() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 8);
+        CompactCodec.BlockWriter writer = new CompactCodec.BlockWriter(new DataOutputStream(bytes));
+        for (int i = 0; i < stack.count(); ++i) {
+            writer.write(stack.getCommand(i));
+        }
+        writer.flush();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeFixed() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 24);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < stack.count(); ++i) {
+            CommandCodec.write(out, stack.getCommand(i));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeSerialized() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeObject(stack);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public void decodeCompact(Blackhole bh) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(compact);
+        CompactCodec.Decoder decoder = new CompactCodec.Decoder();
+        while (in.hasRemaining()) {
+            int end = in.getInt();
+            end += in.position();
+            decoder.reset();
+            while (in.position() < end) {
+                bh.consume(decoder.read(in, stack));
+            }
+        }
+    }
+
+    @Benchmark
+    public void decodeFixed(Blackhole bh) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(fixed);
+        while (in.hasRemaining()) {
+            bh.consume(CommandCodec.read(in, stack));
+        }
+    }
+
+    @Benchmark
+    public Object decodeSerialized() throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(serialized)))) {
+            return in.readObject();
+        }
+    }
+
+}
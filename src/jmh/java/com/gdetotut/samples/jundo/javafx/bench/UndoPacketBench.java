@@ -0,0 +1,59 @@
+package com.gdetotut.samples.jundo.javafx.bench;
+
+import com.gdetotut.jundo.UndoPacket;
+import com.gdetotut.jundo.UndoStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
+
+/**
+ * Round trip through {@link UndoPacket}, as the tabs do it when storing to and restoring from {@code undo.txt}.
+ * <p>Stored size per command is printed at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UndoPacketBench {
+
+    @Param({"10000", "100000"})
+    int size;
+
+    private UndoStack stack;
+
+    private String stored;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stack = BenchFixture.newStack();
+        BenchFixture.fill(stack, size);
+        stored = store();
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%nstored bytes per command: %.2f (%d commands, %d bytes)%n",
+                (double) stored.length() / size, size, stored.length());
+    }
+
+    @Benchmark
+    public String store() throws Exception {
+        return UndoPacket
+                .make(stack, IDS_STACK, 1)
+                .zipped(true)
+                .store();
+    }
+
+    @Benchmark
+    public UndoStack restore() throws Exception {
+        return UndoPacket
+                .peek(stored, subjInfo -> IDS_STACK.equals(subjInfo.id))
+                .restore((processedSubj, subjInfo) -> processedSubj)
+                .stack((stack, subjInfo) -> BenchFixture.registerContexts(stack));
+    }
+
+}
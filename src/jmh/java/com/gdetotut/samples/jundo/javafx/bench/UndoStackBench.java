@@ -0,0 +1,59 @@
+package com.gdetotut.samples.jundo.javafx.bench;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UndoStack#push} with slider-like merge-heavy streams, and {@link BaseTab.UndoBulk.ColorUndo} construction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoStackBench {
+
+    /**
+     * Stack is cleared at this size so that long iterations measure push, not heap growth.
+     */
+    private static final int MAX_COUNT = 100_000;
+
+    /**
+     * Number of consecutive events per property, i.e. how many pushes are merged into one command.
+     */
+    @Param({"1", "10", "1000"})
+    int runLength;
+
+    private UndoStack stack;
+
+    private long tick;
+
+    private final Color from = Color.RED;
+
+    private final Color to = Color.web("#99ccccff");
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        stack = BenchFixture.newStack();
+        tick = 0;
+    }
+
+    @Benchmark
+    public void pushMerge() {
+        if (stack.count() >= MAX_COUNT) {
+            stack.clear();
+        }
+        stack.push(BenchFixture.sliderCommand(stack, tick++, runLength));
+    }
+
+    @Benchmark
+    public BaseTab.UndoBulk.ColorUndo colorUndoCreate() {
+        return new BaseTab.UndoBulk.ColorUndo(stack, null, 0, from, to);
+    }
+
+}
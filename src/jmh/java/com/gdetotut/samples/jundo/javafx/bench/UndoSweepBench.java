@@ -0,0 +1,41 @@
+package com.gdetotut.samples.jundo.javafx.bench;
+
+import com.gdetotut.jundo.UndoStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full undo sweep down to index 0 followed by a full redo sweep; one operation is {@code 2 * size} steps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UndoSweepBench {
+
+    @Param({"10000", "100000", "1000000"})
+    int size;
+
+    private UndoStack stack;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stack = BenchFixture.newStack();
+        BenchFixture.fill(stack, size);
+    }
+
+    @Benchmark
+    public int undoRedoSweep() {
+        while (stack.canUndo()) {
+            stack.undo();
+        }
+        while (stack.canRedo()) {
+            stack.redo();
+        }
+        return stack.getIdx();
+    }
+
+}
@@ -2,19 +2,19 @@ package com.gdetotut.samples.jundo.javafx;
 
 import com.gdetotut.jundo.UndoCommand;
 import com.gdetotut.jundo.UndoStack;
-import javafx.event.EventHandler;
+import com.gdetotut.samples.jundo.javafx.codec.ColorCodec;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.control.*;
-import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
-import org.hildan.fxgson.FxGson;
 
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -36,15 +36,6 @@ public class BaseTab extends Tab implements Serializable {
          */
         public static final String IDS_STACK = "com.gdetotut.samples.jundo.javafx";
 
-        /**
-         * Ключи для элементов {@link UndoStack#getLocalContexts}.
-         */
-        public static final String IDS_RES = "res";
-        public static final String IDS_COLOR_PICKER = "color_picker";
-        public static final String IDS_RADIUS_SLIDER = "radius_slider";
-        public static final String IDS_X_SLIDER = "x_slider";
-        public static final String IDS_Y_SLIDER = "y_slider";
-
         /**
          * Ключи для элементов {@link UndoStack#getSubj}, необходимые для сериализации поля {@link #shape}.
          * <p>Так как поле не имеет маркера {@link Serializable}, его прямая сериализация недоступна,
@@ -56,12 +47,45 @@ public class BaseTab extends Tab implements Serializable {
         public static final String IDS_X = "x";
         public static final String IDS_Y = "y";
 
+        /**
+         * Свойства {@link #shape} типа double, которыми управляют слайдеры.
+         * <p>Каждое свойство знает свою ячейку в {@link ShapeContext} и идентификатор склейки,
+         * поэтому для всех трёх хватает одного класса {@link DoublePropertyUndo}.
+         */
+        public enum DoubleProp {
+            RADIUS(1001),
+            X(1002),
+            Y(1003);
+
+            /**
+             * Идентификатор для {@link UndoCommand#id}; значения совпадают с прежними RadiusUndo/XUndo/YUndo.
+             */
+            public final int mergeId;
+
+            DoubleProp(int mergeId) {
+                this.mergeId = mergeId;
+            }
+        }
+
+        /**
+         * Общая техника получения локального контекста: команда ищет его в {@link UndoStack#getLocalContexts}
+         * один раз, дальше обращается к его полям напрямую. Контекст стека один на всё время жизни стека.
+         */
+        static ShapeContext context(ShapeContext cached, UndoStack owner) {
+            return cached != null ? cached : ShapeContext.of(owner);
+        }
+
         /**
          * Базовыу класс команд для удобства.
          * @param <V>
          */
         public static class BaseUndo<V> extends UndoCommand {
 
+            /**
+             * Зафиксирован, чтобы ранее сохранённые стеки продолжали читаться.
+             */
+            private static final long serialVersionUID = 583404516566424950L;
+
             V oldV;
             V newV;
 
@@ -70,6 +94,11 @@ public class BaseTab extends Tab implements Serializable {
              */
             final int resId;
 
+            /**
+             * Контекст стека, найденный при первом обращении.
+             */
+            transient ShapeContext ctx;
+
             /**
              * @param owner Ссылка на свой {@link UndoStack}
              * @param parent Для команд в "цепочке".
@@ -84,186 +113,349 @@ public class BaseTab extends Tab implements Serializable {
                 this.resId = resId;
             }
 
+            ShapeContext ctx() {
+                return ctx = context(ctx, owner);
+            }
+
             @Override
             public String getCaption() {
-                // Техника получения элемента локального контекста.
-                // В реальности, конечно, следует проверять на наличие.
-                Resources res = (Resources) owner.getLocalContexts().get(IDS_RES);
-                return res.getString(resId);
+                return ctx().caption(resId);
+            }
+
+            public int getResId() {
+                return resId;
             }
         }
 
         /**
          * Класс команды изменения цвета {@link #shape}.
          * <p>Тип {@link Color} не содержит маркера {@link Serializable}, и его невозможно напрямую сериализовать
-         * в виде поля команды. Поэтому используется техника конвертации в JSON.
+         * в виде поля команды. Поэтому цвет хранится упакованным в {@code int} RGBA через {@link ColorCodec}:
+         * без создания {@link com.google.gson.Gson} и разбора JSON на каждом undo/redo.
+         * <p>Унаследованные строковые {@link #oldV}/{@link #newV} заполнены только у команд из старых сохранений
+         * (там цвет лежал в JSON) и сразу же конвертируются при чтении.
          */
         public static class ColorUndo extends BaseUndo<String> {
 
+            private static final long serialVersionUID = -4589999487508913992L;
+
+            int oldRgba;
+            int newRgba;
+
             public ColorUndo(@NotNull UndoStack owner, UndoCommand parent, int resId, Color oldV, Color newV) {
-                super(owner, parent, resId,
-                        FxGson.createWithExtras().toJson(oldV),
-                        FxGson.createWithExtras().toJson(newV));
+                super(owner, parent, resId, null, null);
+                this.oldRgba = ColorCodec.toRgba(oldV);
+                this.newRgba = ColorCodec.toRgba(newV);
+            }
+
+            /**
+             * Для восстановления из двоичных форматов, где цвет уже упакован.
+             */
+            public ColorUndo(@NotNull UndoStack owner, UndoCommand parent, int resId, int oldRgba, int newRgba) {
+                super(owner, parent, resId, null, null);
+                this.oldRgba = oldRgba;
+                this.newRgba = newRgba;
             }
 
             @Override
             protected void doRedo() {
                 // Техника получения элемента локального контекста.
-                // В реальности, конечно, следует проверять на наличие.
-                ColorPicker cp = (ColorPicker) owner.getLocalContexts().get(IDS_COLOR_PICKER);
-
-                Color cl = FxGson.createWithExtras().fromJson(newV, Color.class);
-                cp.setValue(cl);
+                // Наличие проверяется при привязке контекста, см. ShapeContext.
+                ctx().color().set(ColorCodec.fromRgba(newRgba));
             }
 
             @Override
             protected void doUndo() {
                 // Техника получения элемента локального контекста.
-                // В реальности, конечно, следует проверять на наличие.
-                ColorPicker cp = (ColorPicker) owner.getLocalContexts().get(IDS_COLOR_PICKER);
+                // Наличие проверяется при привязке контекста, см. ShapeContext.
+                ctx().color().set(ColorCodec.fromRgba(oldRgba));
+            }
+
+            public int getOldRgba() {
+                return oldRgba;
+            }
 
-                Color cl = FxGson.createWithExtras().fromJson(oldV, Color.class);
-                cp.setValue(cl);
+            public int getNewRgba() {
+                return newRgba;
+            }
+
+            /**
+             * Чтение старого формата, в котором цвета хранились строками JSON.
+             */
+            private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+                in.defaultReadObject();
+                if (oldV != null) {
+                    oldRgba = ColorCodec.fromJson(oldV);
+                    oldV = null;
+                }
+                if (newV != null) {
+                    newRgba = ColorCodec.fromJson(newV);
+                    newV = null;
+                }
             }
 
         }
 
         /**
-         * Класс команды изменения радиуса {@link #shape}.
-         * <p>Тип {@link Double} является сериализуемым, и его можно использовать напрямую.
-         * <p>Отличие этого класса - в использовании метода {@link #mergeWith}.
+         * Класс команды изменения радиуса или координат {@link #shape}.
+         * <p>Значения хранятся примитивами, поэтому ни создание, ни склейка команды не порождают
+         * упакованных {@link Double}: слайдер шлёт сотни событий в секунду, и каждое из них раньше
+         * оставляло после себя мусор.
          */
-        public static class RadiusUndo extends BaseUndo<Double> {
+        public static class DoublePropertyUndo extends UndoCommand {
+
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * Хранит идентификатор ресурса для вызова конкретной строки.
+             */
+            final int resId;
+
+            /**
+             * Какое именно свойство меняет команда.
+             */
+            final DoubleProp prop;
+
+            double oldV;
+            double newV;
 
             /**
-             * Конструктор ничем не отличается от конструктора {@link ColorUndo}, за исключением типа значения.
+             * Запрет склейки для команд, восстановленных из файла: при сборке стека подряд идущие
+             * команды одного свойства не должны слипаться.
              */
-            public RadiusUndo(@NotNull UndoStack owner, UndoCommand parent, int resId, Number oldV, Number newV) {
-                super(owner, parent, resId, (Double) oldV, (Double)newV);
+            transient boolean sealed;
+
+            /**
+             * Контекст стека, найденный при первом обращении.
+             */
+            transient ShapeContext ctx;
+
+            /**
+             * @param owner Ссылка на свой {@link UndoStack}
+             * @param parent Для команд в "цепочке".
+             * @param resId Идентификатор строкового ресурса для {@link #getCaption}
+             * @param prop Изменяемое свойство.
+             * @param oldV Текущее значение.
+             * @param newV Значение, которое надо присвоить.
+             */
+            public DoublePropertyUndo(@NotNull UndoStack owner, UndoCommand parent, int resId,
+                                      @NotNull DoubleProp prop, double oldV, double newV) {
+                super(owner, "", parent);
+                this.resId = resId;
+                this.prop = prop;
+                this.oldV = oldV;
+                this.newV = newV;
             }
 
             @Override
             protected void doRedo() {
-                Slider slider = (Slider)owner.getLocalContexts().get(IDS_RADIUS_SLIDER);
-                slider.setValue(newV);
+                ctx().value(prop).set(newV);
             }
 
             @Override
             protected void doUndo() {
-                Slider slider = (Slider)owner.getLocalContexts().get(IDS_RADIUS_SLIDER);
-                slider.setValue(oldV);
+                ctx().value(prop).set(oldV);
+            }
+
+            ShapeContext ctx() {
+                return ctx = context(ctx, owner);
             }
 
             /**
-             * Этот идентификатор используется для склейки команд и должен быть уникален для класса в пределах {@link #owner}.
+             * Этот идентификатор используется для склейки команд и должен быть уникален для свойства в пределах {@link #owner}.
              */
             @Override
             public int id() {
-                return 1001;
+                return prop.mergeId;
             }
 
             /**
-             * Склейка тут необходима, так как в момент движения ползунка радиуса события изменения свойства льются
+             * Склейка тут необходима, так как в момент движения ползунка события изменения свойства льются
              * непрерывно, и вместо одной команды, как для {@link ColorUndo} мы получаем великое множество, что логически неверно.
-             * <p>Поэтому все непрерывные команды этого типа записываются в одну, что дает нам одно redo и одно undo на одно изменение.
+             * <p>Поэтому все непрерывные команды одного свойства записываются в одну, что дает нам одно redo и одно undo на одно изменение.
              */
             @Override
             public boolean mergeWith(@NotNull UndoCommand cmd) {
-                if(cmd instanceof RadiusUndo) {
-                    RadiusUndo ruCmd = (RadiusUndo)cmd;
-                    newV = ruCmd.newV;
-                    return true;
+                if (!sealed && cmd instanceof DoublePropertyUndo) {
+                    DoublePropertyUndo other = (DoublePropertyUndo) cmd;
+                    if (other.prop == prop) {
+                        newV = other.newV;
+                        return true;
+                    }
                 }
                 return false;
             }
 
+            @Override
+            public String getCaption() {
+                return ctx().caption(resId);
+            }
+
+            public int getResId() {
+                return resId;
+            }
+
+            public void seal() {
+                sealed = true;
+            }
+
+            /**
+             * Снова разрешает склейку, например при воспроизведении журнала, где склейка уже записана.
+             */
+            public void unseal() {
+                sealed = false;
+            }
+
+            public DoubleProp getProp() {
+                return prop;
+            }
+
+            public double getOldV() {
+                return oldV;
+            }
+
+            public double getNewV() {
+                return newV;
+            }
+
         }
 
         /**
-         * Класс команды изменения x-координаты {@link #shape}. Совпадает с классом {@link RadiusUndo}.
+         * Класс команды перемещения {@link #shape} мышью: обе координаты меняются одной командой.
+         * <p>Пока фигуру тащат, команда не создаётся; она помещается в стек один раз, при отпускании кнопки.
+         * Поэтому и склейка ей не нужна.
          */
-        public static class XUndo extends BaseUndo<Double> {
+        public static class MoveUndo extends UndoCommand {
+
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * Хранит идентификатор ресурса для вызова конкретной строки.
+             */
+            final int resId;
 
-            public XUndo(@NotNull UndoStack owner, UndoCommand parent, int resId, Number oldV, Number newV) {
-                super(owner, parent, resId, (Double) oldV, (Double)newV);
+            final double oldX;
+            final double oldY;
+            final double newX;
+            final double newY;
+
+            /**
+             * Контекст стека, найденный при первом обращении.
+             */
+            transient ShapeContext ctx;
+
+            /**
+             * @param owner Ссылка на свой {@link UndoStack}
+             * @param parent Для команд в "цепочке".
+             * @param resId Идентификатор строкового ресурса для {@link #getCaption}
+             */
+            public MoveUndo(@NotNull UndoStack owner, UndoCommand parent, int resId,
+                            double oldX, double oldY, double newX, double newY) {
+                super(owner, "", parent);
+                this.resId = resId;
+                this.oldX = oldX;
+                this.oldY = oldY;
+                this.newX = newX;
+                this.newY = newY;
             }
 
             @Override
             protected void doRedo() {
-                Slider slider = (Slider)owner.getLocalContexts().get(IDS_X_SLIDER);
-                slider.setValue(newV);
+                set(newX, newY);
             }
 
             @Override
             protected void doUndo() {
-                Slider slider = (Slider)owner.getLocalContexts().get(IDS_X_SLIDER);
-                slider.setValue(oldV);
+                set(oldX, oldY);
             }
 
-            /**
-             * @see {@link RadiusUndo#id}
-             */
-            @Override
-            public int id() {
-                return 1002;
+            private void set(double x, double y) {
+                ShapeContext ctx = ctx();
+                ctx.value(DoubleProp.X).set(x);
+                ctx.value(DoubleProp.Y).set(y);
+            }
+
+            ShapeContext ctx() {
+                return ctx = context(ctx, owner);
             }
 
-            /**
-             * @see {@link RadiusUndo#mergeWith}
-             */
             @Override
-            public boolean mergeWith(@NotNull UndoCommand cmd) {
-                if(cmd instanceof XUndo) {
-                    XUndo ruCmd = (XUndo)cmd;
-                    newV = ruCmd.newV;
-                    return true;
-                }
-                return false;
+            public String getCaption() {
+                return ctx().caption(resId);
+            }
+
+            public int getResId() {
+                return resId;
+            }
+
+            public double getOldX() {
+                return oldX;
+            }
+
+            public double getOldY() {
+                return oldY;
+            }
+
+            public double getNewX() {
+                return newX;
             }
+
+            public double getNewY() {
+                return newY;
+            }
+
         }
 
         /**
-         * Класс команды изменения y-координаты {@link #shape}. Совпадает с классом {@link RadiusUndo}.
+         * Прежний класс команды изменения радиуса, заменён {@link DoublePropertyUndo}.
+         * <p>Оставлен только для чтения ранее сохранённых стеков: при десериализации подменяется эквивалентной командой.
          */
-        public static class YUndo extends BaseUndo<Double> {
+        @Deprecated
+        static final class RadiusUndo extends BaseUndo<Double> {
 
-            public YUndo(@NotNull UndoStack owner, UndoCommand parent, int resId, Number oldV, Number newV) {
-                super(owner, parent, resId, (Double) oldV, (Double)newV);
+            private static final long serialVersionUID = -622979978895472946L;
+
+            private RadiusUndo(UndoStack owner) {
+                super(owner, null, 0, null, null);
             }
 
-            @Override
-            protected void doRedo() {
-                Slider slider = (Slider)owner.getLocalContexts().get(IDS_Y_SLIDER);
-                slider.setValue(newV);
+            private Object readResolve() {
+                return new DoublePropertyUndo(owner, null, resId, DoubleProp.RADIUS, oldV, newV);
             }
+        }
 
-            @Override
-            protected void doUndo() {
-                Slider slider = (Slider)owner.getLocalContexts().get(IDS_Y_SLIDER);
-                slider.setValue(oldV);
+        /**
+         * @see RadiusUndo
+         */
+        @Deprecated
+        static final class XUndo extends BaseUndo<Double> {
+
+            private static final long serialVersionUID = 343820588972512722L;
+
+            private XUndo(UndoStack owner) {
+                super(owner, null, 0, null, null);
             }
 
-            /**
-             * @see {@link RadiusUndo#id()}
-             */
-            @Override
-            public int id() {
-                return 1003;
+            private Object readResolve() {
+                return new DoublePropertyUndo(owner, null, resId, DoubleProp.X, oldV, newV);
             }
+        }
 
-            /**
-             * @see {@link RadiusUndo#mergeWith}
-             */
-            @Override
-            public boolean mergeWith(@NotNull UndoCommand cmd) {
-                if(cmd instanceof YUndo) {
-                    YUndo ruCmd = (YUndo)cmd;
-                    newV = ruCmd.newV;
-                    return true;
-                }
-                return false;
+        /**
+         * @see RadiusUndo
+         */
+        @Deprecated
+        static final class YUndo extends BaseUndo<Double> {
+
+            private static final long serialVersionUID = 2117447582965185527L;
+
+            private YUndo(UndoStack owner) {
+                super(owner, null, 0, null, null);
             }
 
+            private Object readResolve() {
+                return new DoublePropertyUndo(owner, null, resId, DoubleProp.Y, oldV, newV);
+            }
         }
 
     }
@@ -276,25 +468,38 @@ public class BaseTab extends Tab implements Serializable {
     public final Button undoBtn = new Button("Undo2");
     public final Button redoBtn = new Button("Redo2");
     public final Button saveBtn = new Button("Save2");
+    public final Button revertBtn = new Button("Revert");
     public final Button serialBtn = new Button();
 
+    /**
+     * Переключение на другую ветку redo; видна только в режиме дерева отмены, см. {@link UndoTree}.
+     */
+    public final Button branchBtn = new Button("Branch");
+
+    /**
+     * Панель, на которой лежит {@link #shape}; фигуру можно перетаскивать по ней мышью.
+     */
+    public final Pane canvas = new Pane();
+
     public BaseTab(String text, Circle shape) {
         super(text);
         this.shape = shape;
 
-        Pane pane = new Pane();
-        pane.setPrefWidth(400);
-        pane.setPrefHeight(300);
-        pane.getChildren().add(shape);
+        canvas.setPrefWidth(400);
+        canvas.setPrefHeight(300);
+        canvas.getChildren().add(shape);
 
         shape.fillProperty().bind(colorPicker.valueProperty());
         shape.radiusProperty().bind(radius.valueProperty());
         shape.centerXProperty().bind(centerX.valueProperty());
         shape.centerYProperty().bind(centerY.valueProperty());
 
-        HBox undoPanel = new HBox(20.0, undoBtn, redoBtn, saveBtn);
+        branchBtn.setVisible(false);
+        branchBtn.managedProperty().bind(branchBtn.visibleProperty());
+
+        HBox undoPanel = new HBox(20.0, undoBtn, redoBtn, branchBtn, saveBtn, revertBtn);
         VBox root = new VBox(10.0,
-                pane,
+                canvas,
                 labeled("Color", colorPicker),
                 labeled("Radius", radius),
                 labeled("X", centerX),
@@ -307,6 +512,18 @@ public class BaseTab extends Tab implements Serializable {
         setContent(root);
     }
 
+    /**
+     * Вызывает {@code action}, когда вкладку убирают из её {@link javafx.scene.control.TabPane}: закрывают
+     * или заменяют новой. Здесь контроллеры освобождают то, что переживает вкладку: MBean, файлы.
+     */
+    public void onDiscarded(Runnable action) {
+        tabPaneProperty().addListener((observable, oldPane, newPane) -> {
+            if (oldPane != null && newPane == null) {
+                action.run();
+            }
+        });
+    }
+
     private static HBox labeled(String labelText, Node node) {
         Label label = new Label(labelText);
         label.setStyle("-fx-font-weight: bold;");
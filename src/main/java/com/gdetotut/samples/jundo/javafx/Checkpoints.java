@@ -0,0 +1,155 @@
+package com.gdetotut.samples.jundo.javafx;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.jundo.UndoWatcher;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Full states of the subject at some indexes of the stack: every {@code stride} commands and at the clean mark.
+ * <p>A far jump with {@link UndoDriver#setIndex} runs every command in between, and each of them moves a widget.
+ * {@link #jumpTo} instead moves the index with the commands writing into a scratch {@link ShapeState} and the watcher
+ * muted, takes the nearest checkpoint and replays only the commands from there to the target. The caller applies
+ * the result to the widgets once. Spilled and lazily restored commands are not loaded for the move, see
+ * {@link ShapeContext#setDetached}.
+ * <p>Checkpoints are computed the same way, by replay from the previous one, not read from the widgets:
+ * while {@code PropertyCapture} flushes several commands, the widgets are already ahead of the stack.
+ */
+public class Checkpoints implements UndoDriver.Listener {
+
+    public static final int DEFAULT_STRIDE = 1_000;
+
+    private final UndoDriver driver;
+
+    private final UndoStack stack;
+
+    private final UndoWatcher watcher;
+
+    private final int stride;
+
+    private final TreeMap<Integer, ShapeState> states = new TreeMap<>();
+
+    /**
+     * Takes the commands' writes while the index is moved.
+     */
+    private final ShapeState sink = new ShapeState();
+
+    /**
+     * @param current State of the subject at the current index of the stack.
+     * @param watcher Watcher of the stack; muted during jumps and told the outcome afterwards.
+     */
+    public Checkpoints(UndoDriver driver, ShapeState current, UndoWatcher watcher, int stride) {
+        this.driver = driver;
+        this.stack = driver.getStack();
+        this.watcher = watcher;
+        this.stride = stride;
+        ShapeState state = new ShapeState();
+        state.set(current);
+        states.put(stack.getIdx(), state);
+        driver.addListener(this);
+    }
+
+    @Override
+    public void pushed(UndoCommand cmd) {
+        int idx = stack.getIdx();
+        // Pushing dropped the commands above the old index, or merged into the one below the new index.
+        states.tailMap(idx, true).clear();
+        Integer below = states.floorKey(idx);
+        if (below == null || idx - below >= stride) {
+            states.put(idx, stateAt(idx));
+        }
+    }
+
+    @Override
+    public void cleaned() {
+        int idx = stack.getIdx();
+        if (!states.containsKey(idx)) {
+            states.put(idx, stateAt(idx));
+        }
+    }
+
+    /**
+     * "Revert to saved": {@link #jumpTo} the clean mark.
+     *
+     * @return {@code null} if the stack has no reachable clean mark.
+     */
+    public ShapeState revertToClean() {
+        int idx = stack.getCleanIdx();
+        return idx < 0 || idx > stack.count() ? null : jumpTo(idx);
+    }
+
+    /**
+     * Moves the stack to {@code idx} without touching the widgets.
+     *
+     * @return State of the subject at {@code idx}; apply it to the widgets.
+     */
+    public ShapeState jumpTo(int idx) {
+        idx = Math.max(0, Math.min(idx, stack.count()));
+        ShapeState target = stateAt(idx);
+        ShapeContext.Binding saved = mute(sink);
+        ShapeContext.of(stack).setDetached(true);
+        stack.setWatcher(null);
+        try {
+            driver.setIndex(idx);
+        } finally {
+            ShapeContext.of(stack).setDetached(false);
+            unmute(saved);
+            stack.setWatcher(watcher);
+        }
+        if (watcher != null) {
+            watcher.indexChanged(stack.getIdx());
+            watcher.cleanChanged(stack.isClean());
+        }
+        return target;
+    }
+
+    /**
+     * Nearest checkpoint plus the commands between it and {@code idx}.
+     */
+    private ShapeState stateAt(int idx) {
+        Map.Entry<Integer, ShapeState> below = states.floorEntry(idx);
+        Map.Entry<Integer, ShapeState> above = states.ceilingEntry(idx);
+        boolean forward = above == null || (below != null && idx - below.getKey() <= above.getKey() - idx);
+        Map.Entry<Integer, ShapeState> from = forward ? below : above;
+        ShapeState state = new ShapeState();
+        state.set(from.getValue());
+        if (from.getKey() == idx) {
+            return state;
+        }
+        ShapeContext.Binding saved = mute(state);
+        try {
+            if (forward) {
+                for (int i = from.getKey(); i < idx; ++i) {
+                    stack.getCommand(i).redo();
+                }
+            } else {
+                for (int i = from.getKey() - 1; i >= idx; --i) {
+                    stack.getCommand(i).undo();
+                }
+            }
+        } finally {
+            unmute(saved);
+        }
+        return state;
+    }
+
+    /**
+     * Points the commands at {@code state} instead of the widgets.
+     *
+     * @return The binding replaced.
+     */
+    private ShapeContext.Binding mute(ShapeState state) {
+        ShapeContext ctx = ShapeContext.of(stack);
+        ShapeContext.Binding saved = ctx.getBinding();
+        ctx.bind(state.binding());
+        return saved;
+    }
+
+    private void unmute(ShapeContext.Binding saved) {
+        ShapeContext.of(stack).bind(saved);
+    }
+
+}
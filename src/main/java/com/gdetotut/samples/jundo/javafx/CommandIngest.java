@@ -0,0 +1,270 @@
+package com.gdetotut.samples.jundo.javafx;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.codec.ColorCodec;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.paint.Color;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Changes of the subject coming from threads other than the FX thread, such as simulations and imports.
+ * <p>Producers {@link #offer} new values into a bounded ring of preallocated slots; a producer claims a slot with one
+ * CAS and never takes a lock or waits for the FX thread. The ring is drained on the FX thread in batches: all values
+ * of a property in a batch become one command, from the value the subject has to the last one offered, pushed through
+ * the {@link UndoDriver}. So a producer outrunning the UI costs one command per property per batch, not one per value.
+ * <p>Backpressure: when the ring is full, {@link #offer} returns {@code false} at once and the value is not taken.
+ * The producer decides whether to drop it, retry later or slow down; {@link #getRejected} counts such values.
+ * <p>An ingest may be created before its stack exists and {@link #attach attached} later: until then the values wait
+ * in the ring.
+ */
+public class CommandIngest {
+
+    /**
+     * String resource ids of the commands, see {@code Resources_V1}.
+     */
+    private static final int RES_COLOR = 0;
+    private static final int[] RES_DOUBLE = {1, 2, 3};
+
+    private static final DoubleProp[] PROPS = DoubleProp.values();
+
+    /**
+     * Slot kind of a color; doubles use the ordinal of their {@link DoubleProp}.
+     */
+    private static final int COLOR = PROPS.length;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Executor fxThread;
+
+    /**
+     * Set by {@link #attach}; FX thread only.
+     */
+    private UndoDriver driver;
+    private Consumer<Runnable> runner;
+
+    /**
+     * Per slot, the position it is ready for: {@code p} to be written at position {@code p}, {@code p + 1} once
+     * written. Its volatile write publishes {@link #kinds} and {@link #values}.
+     */
+    private final AtomicLongArray sequence;
+    private final int[] kinds;
+    private final long[] values;
+    private final int mask;
+
+    /**
+     * Next position to claim, by any producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next position to drain; FX thread only.
+     */
+    private long head;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Latest values of the batch being drained; FX thread only.
+     */
+    private final double[] last = new double[PROPS.length];
+    private final boolean[] dirty = new boolean[PROPS.length];
+
+    /**
+     * Ring of {@code jundo.ingest.capacity} slots (1024), drained once per FX pulse while values keep coming.
+     *
+     * @param runner Runs the pushes of a batch at once, e.g. {@code PropertyCapture::apply}, so that the widgets
+     *               moved by the commands are not captured again.
+     */
+    public CommandIngest(UndoDriver driver, Consumer<Runnable> runner) {
+        this();
+        attach(driver, runner);
+    }
+
+    /**
+     * Same, not attached yet.
+     */
+    public CommandIngest() {
+        this(Integer.getInteger("jundo.ingest.capacity", DEFAULT_CAPACITY), CommandIngest::onNextPulse);
+    }
+
+    /**
+     * @param capacity Ring size; rounded up to a power of two.
+     * @param fxThread Runs the drain on the thread that drives the stack.
+     */
+    public CommandIngest(UndoDriver driver, int capacity, Executor fxThread, Consumer<Runnable> runner) {
+        this(capacity, fxThread);
+        attach(driver, runner);
+    }
+
+    /**
+     * Not attached yet.
+     */
+    public CommandIngest(int capacity, Executor fxThread) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.fxThread = fxThread;
+        this.sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequence.set(i, i);
+        }
+        this.kinds = new int[size];
+        this.values = new long[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * New value of a property. Any thread.
+     *
+     * @return {@code false} if the ring is full and the value was not taken.
+     */
+    public boolean offer(DoubleProp prop, double value) {
+        return offer(prop.ordinal(), Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * New color. Any thread.
+     *
+     * @return {@code false} if the ring is full and the color was not taken.
+     */
+    public boolean offer(Color color) {
+        return offer(COLOR, ColorCodec.toRgba(color));
+    }
+
+    /**
+     * Starts pushing the values through {@code driver}, those offered so far at the next drain. FX thread.
+     *
+     * @param runner See {@link #CommandIngest(UndoDriver, Consumer)}.
+     * @throws IllegalStateException if already attached.
+     */
+    public void attach(UndoDriver driver, Consumer<Runnable> runner) {
+        if (this.driver != null) {
+            throw new IllegalStateException("Already attached");
+        }
+        this.driver = driver;
+        this.runner = runner;
+        if (head != tail.get() && scheduled.compareAndSet(false, true)) {
+            fxThread.execute(this::drain);
+        }
+    }
+
+    /**
+     * Values offered but refused because the ring was full.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Runs the task on the FX thread at the next pulse, so that a batch holds a frame's worth of values
+     * rather than the few offered since the previous {@link Platform#runLater}.
+     */
+    private static void onNextPulse(Runnable task) {
+        Platform.runLater(() -> new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                task.run();
+            }
+        }.start());
+    }
+
+    private boolean offer(int kind, long value) {
+        long t = tail.get();
+        while (true) {
+            int i = (int) t & mask;
+            long seq = sequence.get(i);
+            if (seq == t) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    kinds[i] = kind;
+                    values[i] = value;
+                    sequence.set(i, t + 1);
+                    break;
+                }
+                t = tail.get();
+            } else if (seq < t) {
+                // Not drained yet since the previous lap.
+                rejected.increment();
+                return false;
+            } else {
+                // Claimed by another producer meanwhile.
+                t = tail.get();
+            }
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            fxThread.execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * Takes what is in the ring, at most one lap, and pushes it.
+     */
+    private void drain() {
+        scheduled.set(false);
+        if (driver == null) {
+            // Not attached: the values wait in the ring, attach drains them.
+            return;
+        }
+        boolean color = false;
+        int rgba = 0;
+        long end = head + values.length;
+        while (head != end) {
+            int i = (int) head & mask;
+            if (sequence.get(i) != head + 1) {
+                // Empty, or claimed and not written yet: a later drain takes it.
+                break;
+            }
+            int kind = kinds[i];
+            long value = values[i];
+            sequence.set(i, head + values.length);
+            ++head;
+            if (kind == COLOR) {
+                color = true;
+                rgba = (int) value;
+            } else {
+                dirty[kind] = true;
+                last[kind] = Double.longBitsToDouble(value);
+            }
+        }
+        if (head == end && scheduled.compareAndSet(false, true)) {
+            // A full lap taken: the rest goes with the next batch.
+            fxThread.execute(this::drain);
+        }
+        boolean pushColor = color;
+        int newRgba = rgba;
+        runner.accept(() -> push(pushColor, newRgba));
+    }
+
+    private void push(boolean color, int rgba) {
+        UndoStack stack = driver.getStack();
+        ShapeContext ctx = ShapeContext.of(stack);
+        if (color) {
+            int oldRgba = ColorCodec.toRgba(ctx.color().get());
+            if (oldRgba != rgba) {
+                driver.push(new ColorUndo(stack, null, RES_COLOR, oldRgba, rgba));
+            }
+        }
+        for (DoubleProp prop : PROPS) {
+            int i = prop.ordinal();
+            if (dirty[i]) {
+                dirty[i] = false;
+                double oldV = ctx.value(prop).get();
+                if (Double.compare(oldV, last[i]) != 0) {
+                    driver.push(new DoublePropertyUndo(stack, null, RES_DOUBLE[i], prop, oldV, last[i]));
+                }
+            }
+        }
+    }
+
+}
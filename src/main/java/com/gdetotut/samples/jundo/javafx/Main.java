@@ -1,5 +1,6 @@
 package com.gdetotut.samples.jundo.javafx;
 
+import com.gdetotut.samples.jundo.javafx.doc.JUndoTab_Doc;
 import com.gdetotut.samples.jundo.javafx.v1.JUndoTab_V1;
 import javafx.application.Application;
 import javafx.geometry.Insets;
@@ -28,6 +29,7 @@ public class Main extends Application {
         borderPane.setPadding(new Insets(5.0));
 
         tabPane.getTabs().add(new JUndoTab_V1("JUndo_V1", tabPane));
+        tabPane.getTabs().add(new JUndoTab_Doc("JUndo_Doc"));
 
         borderPane.setCenter(tabPane);
         Scene scene = new Scene(borderPane, 400, 600, Color.WHITE);
@@ -0,0 +1,181 @@
+package com.gdetotut.samples.jundo.javafx;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import javafx.beans.value.WritableDoubleValue;
+import javafx.beans.value.WritableObjectValue;
+import javafx.scene.paint.Color;
+
+/**
+ * Typed local contexts of a stack of {@link BaseTab.UndoBulk} commands: the resources and the values the commands set.
+ * <p>The stack keeps one instance in {@link UndoStack#getLocalContexts}. A command looks it up once and then goes
+ * straight to its fields, so replaying a command costs neither hashing nor casts. To point the commands elsewhere,
+ * rebind the fields of the same instance with {@link #bind(BaseTab)}, {@link #bind(Binding)} and the like;
+ * do not put a new instance into the map.
+ * <p>Missing values are reported by {@link #bind} methods and by {@link #of}, not in the middle of a replay.
+ */
+public final class ShapeContext {
+
+    /**
+     * Key of the instance in {@link UndoStack#getLocalContexts}.
+     */
+    public static final String IDS_CONTEXT = "context";
+
+    private static final DoubleProp[] PROPS = DoubleProp.values();
+
+    /**
+     * What the commands write to: a color and one value per {@link DoubleProp}.
+     */
+    public static final class Binding {
+
+        final WritableObjectValue<Color> color;
+        final WritableDoubleValue[] values;
+
+        /**
+         * @param values In the order of {@link DoubleProp}.
+         */
+        public Binding(WritableObjectValue<Color> color, WritableDoubleValue... values) {
+            if (color == null || values.length != PROPS.length) {
+                throw new IllegalArgumentException("A color and " + PROPS.length + " values are required");
+            }
+            for (int i = 0; i < values.length; ++i) {
+                if (values[i] == null) {
+                    throw new IllegalArgumentException("No value for " + PROPS[i]);
+                }
+            }
+            this.color = color;
+            this.values = values.clone();
+        }
+    }
+
+    private Resources res;
+
+    /**
+     * Captions of {@link #res} by resource id; dropped when the resources change.
+     */
+    private String[] captions = new String[8];
+
+    private Binding binding;
+
+    /**
+     * See {@link #setDetached}.
+     */
+    private boolean detached;
+
+    private ShapeContext() {
+    }
+
+    /**
+     * The stack's context; created if there is none yet.
+     */
+    public static ShapeContext install(UndoStack stack) {
+        ShapeContext ctx = (ShapeContext) stack.getLocalContexts().get(IDS_CONTEXT);
+        if (ctx == null) {
+            ctx = new ShapeContext();
+            stack.getLocalContexts().put(IDS_CONTEXT, ctx);
+        }
+        return ctx;
+    }
+
+    /**
+     * The stack's context, for commands.
+     *
+     * @throws IllegalStateException If the stack has no context or it is not bound.
+     */
+    public static ShapeContext of(UndoStack stack) {
+        ShapeContext ctx = (ShapeContext) stack.getLocalContexts().get(IDS_CONTEXT);
+        if (ctx == null || ctx.binding == null) {
+            throw new IllegalStateException("Stack has no bound " + ShapeContext.class.getSimpleName());
+        }
+        return ctx;
+    }
+
+    /**
+     * Resources for captions; may be {@code null} if captions are not needed, e.g. while a stack is being built.
+     */
+    public ShapeContext resources(Resources res) {
+        if (res != this.res) {
+            this.res = res;
+            captions = new String[8];
+        }
+        return this;
+    }
+
+    public Resources getResources() {
+        return res;
+    }
+
+    public ShapeContext bind(Binding binding) {
+        if (binding == null) {
+            throw new IllegalArgumentException("No binding");
+        }
+        this.binding = binding;
+        return this;
+    }
+
+    /**
+     * Binds to the widgets' values.
+     */
+    public ShapeContext bind(BaseTab tab) {
+        return bind(new Binding(tab.colorPicker.valueProperty(),
+                tab.radius.valueProperty(), tab.centerX.valueProperty(), tab.centerY.valueProperty()));
+    }
+
+    /**
+     * Whether the commands are being run only to move the index, their writes being thrown away, as in
+     * {@link Checkpoints#jumpTo}. Meanwhile commands standing in for others ({@link
+     * com.gdetotut.samples.jundo.javafx.codec.CommandProxy}) skip their undo and redo instead of decoding the real one.
+     * Thread that drives the stack only.
+     */
+    public void setDetached(boolean detached) {
+        this.detached = detached;
+    }
+
+    /**
+     * Whether the stack's commands may skip their undo and redo, see {@link #setDetached}.
+     * {@code false} for a stack without a context.
+     */
+    public static boolean isDetached(UndoStack stack) {
+        ShapeContext ctx = (ShapeContext) stack.getLocalContexts().get(IDS_CONTEXT);
+        return ctx != null && ctx.detached;
+    }
+
+    /**
+     * Current binding, to be put back later.
+     */
+    public Binding getBinding() {
+        return binding;
+    }
+
+    public WritableObjectValue<Color> color() {
+        return binding.color;
+    }
+
+    public WritableDoubleValue value(DoubleProp prop) {
+        return binding.values[prop.ordinal()];
+    }
+
+    /**
+     * Caption with the given id, resolved once per resources.
+     */
+    public String caption(int resId) {
+        if (res == null) {
+            throw new IllegalStateException("No resources for captions");
+        }
+        if (resId < 0 || resId >= 1024) {
+            return res.getString(resId);
+        }
+        if (resId >= captions.length) {
+            String[] grown = new String[Math.max(resId + 1, captions.length * 2)];
+            System.arraycopy(captions, 0, grown, 0, captions.length);
+            captions = grown;
+        }
+        String s = captions[resId];
+        if (s == null) {
+            s = res.getString(resId);
+            captions[resId] = s;
+        }
+        return s;
+    }
+
+}
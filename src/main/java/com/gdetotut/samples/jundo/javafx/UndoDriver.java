@@ -0,0 +1,133 @@
+package com.gdetotut.samples.jundo.javafx;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.jundo.UndoWatcher;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
+
+/**
+ * Single entry point through which the application changes its {@link UndoStack}.
+ * <p>Besides calling the stack it tells {@link Listener}s what exactly was done. {@link UndoWatcher} can not serve here:
+ * it reports the new index, but a push, a merge and an undo look the same from there.
+ */
+public class UndoDriver {
+
+    /**
+     * Callbacks are invoked after the stack has done the operation, on the thread that called the driver.
+     * A listener may remove itself from within a callback.
+     */
+    public interface Listener {
+
+        /**
+         * Command is about to be pushed. Called before the stack possibly merges it into the command at {@code idx - 1}.
+         */
+        default void beforePush(UndoCommand cmd) {
+        }
+
+        /**
+         * Command was pushed; it was either appended or merged into the previous one.
+         */
+        default void pushed(UndoCommand cmd) {
+        }
+
+        /**
+         * Index was moved by undo, redo or a jump.
+         */
+        default void moved(int idx) {
+        }
+
+        /**
+         * Current index was marked clean.
+         */
+        default void cleaned() {
+        }
+    }
+
+    private final UndoStack stack;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private UnaryOperator<UndoCommand> wrapper = UnaryOperator.identity();
+
+    public UndoDriver(UndoStack stack) {
+        this.stack = stack;
+    }
+
+    public UndoStack getStack() {
+        return stack;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Every pushed command is replaced by what {@code wrapper} returns for it; listeners see the result.
+     */
+    public void setWrapper(UnaryOperator<UndoCommand> wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    public void push(UndoCommand cmd) {
+        cmd = wrapper.apply(cmd);
+        for (Listener listener : listeners) {
+            listener.beforePush(cmd);
+        }
+        stack.push(cmd);
+        for (Listener listener : listeners) {
+            listener.pushed(cmd);
+        }
+    }
+
+    public void undo() {
+        if (stack.canUndo()) {
+            stack.undo();
+            fireMoved();
+        }
+    }
+
+    public void redo() {
+        if (stack.canRedo()) {
+            stack.redo();
+            fireMoved();
+        }
+    }
+
+    /**
+     * Undoes or redoes commands one by one until {@code idx} is reached.
+     */
+    public void setIndex(int idx) {
+        if (idx == stack.getIdx()) {
+            return;
+        }
+        while (stack.getIdx() > idx && stack.canUndo()) {
+            stack.undo();
+        }
+        while (stack.getIdx() < idx && stack.canRedo()) {
+            stack.redo();
+        }
+        fireMoved();
+    }
+
+    public void setClean() {
+        stack.setClean();
+        for (Listener listener : listeners) {
+            listener.cleaned();
+        }
+    }
+
+    private void fireMoved() {
+        int idx = stack.getIdx();
+        for (Listener listener : listeners) {
+            listener.moved(idx);
+        }
+    }
+
+}
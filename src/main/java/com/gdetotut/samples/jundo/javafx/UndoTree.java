@@ -0,0 +1,316 @@
+package com.gdetotut.samples.jundo.javafx;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.jundo.UndoWatcher;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.codec.CommandProxy;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Keeps the redo branches a push after undo drops from the stack, as a tree of commands.
+ * <p>A node is one command; its parent is the command before it, so branches share their common prefix and the tree
+ * grows by one node per distinct command, however many branches there are. The stack stays linear: it holds the path
+ * from the root to one leaf. {@link #checkout} makes another path the stack's by undoing to the common ancestor and
+ * pushing the other branch's commands again, with the commands writing into a scratch state and the watcher muted.
+ * The resulting state is taken from the nearest snapshot above it plus at most {@code stride} commands, not from a replay.
+ * <p>A node's command must not change once it has children, so it is sealed against merges before a push can give it one.
+ * <p>The tree keeps every command on the heap; do not combine it with {@code PagedHistory}.
+ */
+public class UndoTree implements UndoDriver.Listener {
+
+    public static final int DEFAULT_STRIDE = 64;
+
+    public static final class Node {
+
+        private final Node parent;
+        private final UndoCommand cmd;
+        private final int depth;
+
+        private Node firstChild;
+        private Node nextSibling;
+
+        /**
+         * Child that was on the stack last; branch switches go down along it.
+         */
+        private Node recent;
+
+        /**
+         * State after the command; kept at every {@code stride}-th depth once the node has a child.
+         */
+        private ShapeState snapshot;
+
+        private Node(Node parent, UndoCommand cmd) {
+            this.parent = parent;
+            this.cmd = cmd;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        }
+
+        /**
+         * Stack index after the command.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        public Node getParent() {
+            return parent;
+        }
+
+        /**
+         * {@code null} for the root.
+         */
+        public UndoCommand getCommand() {
+            return cmd;
+        }
+    }
+
+    private final UndoDriver driver;
+
+    private final UndoStack stack;
+
+    private final UndoWatcher watcher;
+
+    private final int stride;
+
+    private final Node root;
+
+    /**
+     * Node of each command of the stack, by index.
+     */
+    private final ArrayList<Node> path = new ArrayList<>();
+
+    /**
+     * Takes the commands' writes during {@link #checkout}.
+     */
+    private final ShapeState sink = new ShapeState();
+
+    /**
+     * Node whose command {@link #checkout} is pushing again; {@code null} for new commands.
+     */
+    private Node replaying;
+
+    private Node[] scratch = new Node[16];
+
+    private int size;
+
+    /**
+     * @param current State of the subject at the current index of the stack; the commands already in the stack
+     *                become the first branch.
+     * @param watcher Watcher of the stack; muted during checkouts and told the outcome afterwards.
+     */
+    public UndoTree(UndoDriver driver, ShapeState current, UndoWatcher watcher, int stride) {
+        this.driver = driver;
+        this.stack = driver.getStack();
+        this.watcher = watcher;
+        this.stride = Math.max(1, stride);
+        ShapeState state = new ShapeState();
+        state.set(current);
+        ShapeContext.Binding saved = mute(state);
+        try {
+            for (int i = stack.getIdx() - 1; i >= 0; --i) {
+                stack.getCommand(i).undo();
+            }
+        } finally {
+            unmute(saved);
+        }
+        root = new Node(null, null);
+        root.snapshot = state;
+        Node node = root;
+        for (int i = 0; i < stack.count(); ++i) {
+            node = attach(node, stack.getCommand(i));
+            path.add(node);
+        }
+        driver.addListener(this);
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Number of distinct commands in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Node of the command at {@code idx - 1} of the stack; the root at index 0.
+     */
+    public Node at(int idx) {
+        return idx == 0 ? root : path.get(idx - 1);
+    }
+
+    @Override
+    public void beforePush(UndoCommand cmd) {
+        int idx = stack.getIdx();
+        Node top = at(idx);
+        // The top is about to get a child, a second one if the redo tail goes.
+        if (idx > 0 && (idx < stack.count() || replaying != null || top.firstChild != null)) {
+            seal(top.cmd);
+        }
+        path.subList(idx, path.size()).clear();
+    }
+
+    @Override
+    public void pushed(UndoCommand cmd) {
+        int idx = stack.getIdx();
+        if (idx == 0 || path.size() == idx) {
+            // Merged into the top.
+            return;
+        }
+        Node parent = at(idx - 1);
+        Node node = replaying != null ? replaying : attach(parent, stack.getCommand(idx - 1));
+        parent.recent = node;
+        path.add(node);
+    }
+
+    /**
+     * Whether the current index has a branch other than the redo tail, see {@link #nextBranch}.
+     */
+    public boolean hasOtherBranch() {
+        int idx = stack.getIdx();
+        Node at = at(idx);
+        Node current = idx < path.size() ? path.get(idx) : null;
+        return at.firstChild != null && (at.firstChild != current || current.nextSibling != null);
+    }
+
+    /**
+     * Puts the next branch of the current index into the redo tail, as far as it was last followed.
+     * The index and the subject stay.
+     *
+     * @return {@code false} if there is no other branch.
+     */
+    public boolean nextBranch() {
+        if (!hasOtherBranch()) {
+            return false;
+        }
+        int idx = stack.getIdx();
+        Node at = at(idx);
+        Node current = idx < path.size() ? path.get(idx) : null;
+        Node next = current == null || current.nextSibling == null ? at.firstChild : current.nextSibling;
+        while (next.recent != null) {
+            next = next.recent;
+        }
+        checkout(next, idx);
+        return true;
+    }
+
+    /**
+     * Makes the path to {@code target} the stack's and moves to {@code idx} on it, without touching the widgets.
+     *
+     * @param idx Within {@code [0, target.getDepth()]}.
+     * @return State of the subject at {@code idx}; apply it to the widgets.
+     */
+    public ShapeState checkout(Node target, int idx) {
+        idx = Math.max(0, Math.min(idx, target.depth));
+        // Lowest node of the target's branch that the stack already holds.
+        int n = 0;
+        Node common = target;
+        while (common != root && (common.depth > path.size() || path.get(common.depth - 1) != common)) {
+            if (n == scratch.length) {
+                scratch = Arrays.copyOf(scratch, n * 2);
+            }
+            scratch[n++] = common;
+            common = common.parent;
+        }
+        ShapeContext.Binding saved = mute(sink);
+        stack.setWatcher(null);
+        try {
+            if (n > 0) {
+                driver.setIndex(common.depth);
+                for (int i = n - 1; i >= 0; --i) {
+                    replaying = scratch[i];
+                    scratch[i] = null;
+                    try {
+                        driver.push(replaying.cmd);
+                    } finally {
+                        replaying = null;
+                    }
+                }
+            }
+            driver.setIndex(idx);
+        } finally {
+            unmute(saved);
+            stack.setWatcher(watcher);
+        }
+        if (watcher != null) {
+            watcher.indexChanged(stack.getIdx());
+            watcher.cleanChanged(stack.isClean());
+        }
+        return stateAt(at(stack.getIdx()));
+    }
+
+    private Node attach(Node parent, UndoCommand cmd) {
+        if (parent.firstChild == null && parent.snapshot == null && parent.depth % stride == 0) {
+            // The parent's command is final from now on.
+            parent.snapshot = stateAt(parent);
+        }
+        Node node = new Node(parent, cmd);
+        node.nextSibling = parent.firstChild;
+        parent.firstChild = node;
+        parent.recent = node;
+        ++size;
+        return node;
+    }
+
+    /**
+     * Nearest snapshot above the node plus the commands from there down.
+     * <p>Every node above has a child, so one at most {@code stride} levels up has a snapshot.
+     */
+    private ShapeState stateAt(Node node) {
+        int n = 0;
+        Node from = node;
+        while (from.snapshot == null) {
+            if (n == scratch.length) {
+                scratch = Arrays.copyOf(scratch, n * 2);
+            }
+            scratch[n++] = from;
+            from = from.parent;
+        }
+        ShapeState state = new ShapeState();
+        state.set(from.snapshot);
+        if (n > 0) {
+            ShapeContext.Binding saved = mute(state);
+            try {
+                for (int i = n - 1; i >= 0; --i) {
+                    scratch[i].cmd.redo();
+                    scratch[i] = null;
+                }
+            } finally {
+                unmute(saved);
+            }
+        }
+        return state;
+    }
+
+    private static void seal(UndoCommand cmd) {
+        while (cmd instanceof CommandProxy) {
+            cmd = ((CommandProxy) cmd).get();
+        }
+        if (cmd instanceof DoublePropertyUndo) {
+            ((DoublePropertyUndo) cmd).seal();
+        }
+    }
+
+    /**
+     * Points the commands at {@code state} instead of the widgets.
+     *
+     * @return The binding replaced.
+     */
+    private ShapeContext.Binding mute(ShapeState state) {
+        ShapeContext ctx = ShapeContext.of(stack);
+        ShapeContext.Binding saved = ctx.getBinding();
+        ctx.bind(state.binding());
+        return saved;
+    }
+
+    private void unmute(ShapeContext.Binding saved) {
+        ShapeContext.of(stack).bind(saved);
+    }
+
+}
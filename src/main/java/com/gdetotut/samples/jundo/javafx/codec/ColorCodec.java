@@ -0,0 +1,59 @@
+package com.gdetotut.samples.jundo.javafx.codec;
+
+import com.google.gson.Gson;
+import javafx.scene.paint.Color;
+import org.hildan.fxgson.FxGson;
+
+/**
+ * Converts {@link Color} to packed RGBA {@code int} and back.
+ * <p>Channels are stored as 8 bits each in {@code 0xRRGGBBAA} order, which is exactly the precision
+ * FxGson used to keep in its {@code "#rrggbbaa"} strings, so nothing is lost compared to the JSON form.
+ * <p>All methods are static and stateless, hence thread-safe.
+ */
+public final class ColorCodec {
+
+    /**
+     * Shared fallback for legacy values that are not plain {@code "#rrggbb[aa]"} strings.
+     * {@link Gson} instances are thread-safe, so one is enough.
+     */
+    private static final Gson LEGACY_GSON = FxGson.createWithExtras();
+
+    private ColorCodec() {
+    }
+
+    public static int toRgba(Color c) {
+        if (c == null) {
+            return 0;
+        }
+        return channel(c.getRed()) << 24
+                | channel(c.getGreen()) << 16
+                | channel(c.getBlue()) << 8
+                | channel(c.getOpacity());
+    }
+
+    public static Color fromRgba(int rgba) {
+        return Color.rgb(rgba >>> 24, (rgba >>> 16) & 0xFF, (rgba >>> 8) & 0xFF, (rgba & 0xFF) / 255.0);
+    }
+
+    /**
+     * Reads a color written by FxGson (e.g. {@code "\"#b34d1aff\""}) as it is found in stacks stored by earlier builds.
+     */
+    public static int fromJson(String json) {
+        String s = json.trim();
+        if (s.length() > 1 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
+            s = s.substring(1, s.length() - 1);
+        }
+        if (s.length() == 9 && s.charAt(0) == '#') {
+            return Integer.parseUnsignedInt(s.substring(1), 16);
+        }
+        if (s.length() == 7 && s.charAt(0) == '#') {
+            return Integer.parseUnsignedInt(s.substring(1), 16) << 8 | 0xFF;
+        }
+        return toRgba(LEGACY_GSON.fromJson(json, Color.class));
+    }
+
+    private static int channel(double v) {
+        return (int) Math.round(v * 255.0);
+    }
+
+}
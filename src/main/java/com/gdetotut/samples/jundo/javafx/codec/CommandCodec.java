@@ -0,0 +1,115 @@
+package com.gdetotut.samples.jundo.javafx.codec;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.MoveUndo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary form of a single {@link com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk} command.
+ * <p>Unlike Java serialization of a command it does not drag along the {@code owner} stack,
+ * so commands can be written one at a time. Macros (commands with children) are not supported.
+ */
+public final class CommandCodec {
+
+    static final byte TAG_COLOR = 1;
+    static final byte TAG_DOUBLE = 2;
+    static final byte TAG_MOVE = 3;
+
+    private static final DoubleProp[] PROPS = DoubleProp.values();
+
+    private CommandCodec() {
+    }
+
+    public static void write(DataOutput out, UndoCommand cmd) throws IOException {
+        while (cmd instanceof CommandProxy) {
+            cmd = ((CommandProxy) cmd).get();
+        }
+        if (cmd instanceof ColorUndo) {
+            ColorUndo c = (ColorUndo) cmd;
+            out.writeByte(TAG_COLOR);
+            out.writeInt(c.getResId());
+            out.writeInt(c.getOldRgba());
+            out.writeInt(c.getNewRgba());
+        } else if (cmd instanceof DoublePropertyUndo) {
+            DoublePropertyUndo d = (DoublePropertyUndo) cmd;
+            out.writeByte(TAG_DOUBLE);
+            out.writeInt(d.getResId());
+            out.writeByte(d.getProp().ordinal());
+            out.writeDouble(d.getOldV());
+            out.writeDouble(d.getNewV());
+        } else if (cmd instanceof MoveUndo) {
+            MoveUndo m = (MoveUndo) cmd;
+            out.writeByte(TAG_MOVE);
+            out.writeInt(m.getResId());
+            out.writeDouble(m.getOldX());
+            out.writeDouble(m.getOldY());
+            out.writeDouble(m.getNewX());
+            out.writeDouble(m.getNewY());
+        } else {
+            throw new IllegalArgumentException("Unsupported command: " + cmd.getClass().getName());
+        }
+    }
+
+    /**
+     * Size of the command in binary form, without encoding it.
+     *
+     * @return {@code -1} for commands that can not be encoded.
+     */
+    public static int sizeOf(UndoCommand cmd) {
+        while (cmd instanceof CommandProxy) {
+            cmd = ((CommandProxy) cmd).get();
+        }
+        if (cmd instanceof ColorUndo) {
+            return 1 + 3 * 4;
+        } else if (cmd instanceof DoublePropertyUndo) {
+            return 1 + 4 + 1 + 2 * 8;
+        } else if (cmd instanceof MoveUndo) {
+            return 1 + 4 + 4 * 8;
+        }
+        return -1;
+    }
+
+    /**
+     * @param owner Stack the command will belong to.
+     */
+    public static UndoCommand read(DataInput in, UndoStack owner) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_COLOR:
+                return new ColorUndo(owner, null, in.readInt(), in.readInt(), in.readInt());
+            case TAG_DOUBLE:
+                return new DoublePropertyUndo(owner, null, in.readInt(), PROPS[in.readByte()], in.readDouble(), in.readDouble());
+            case TAG_MOVE:
+                return new MoveUndo(owner, null, in.readInt(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+            default:
+                throw new IOException("Unknown command tag: " + tag);
+        }
+    }
+
+    /**
+     * Same as {@link #read(DataInput, UndoStack)}, straight from a (possibly memory-mapped) buffer.
+     */
+    public static UndoCommand read(ByteBuffer in, UndoStack owner) throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case TAG_COLOR:
+                return new ColorUndo(owner, null, in.getInt(), in.getInt(), in.getInt());
+            case TAG_DOUBLE:
+                return new DoublePropertyUndo(owner, null, in.getInt(), PROPS[in.get()], in.getDouble(), in.getDouble());
+            case TAG_MOVE:
+                return new MoveUndo(owner, null, in.getInt(), in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+            default:
+                throw new IOException("Unknown command tag: " + tag);
+        }
+    }
+
+}
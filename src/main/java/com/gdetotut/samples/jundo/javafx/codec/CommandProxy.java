@@ -0,0 +1,15 @@
+package com.gdetotut.samples.jundo.javafx.codec;
+
+import com.gdetotut.jundo.UndoCommand;
+
+/**
+ * Command that stands in for another one, e.g. until it is decoded. {@link CommandCodec} encodes the real command.
+ */
+public interface CommandProxy {
+
+    /**
+     * @return The real command; decoded if needed.
+     */
+    UndoCommand get();
+
+}
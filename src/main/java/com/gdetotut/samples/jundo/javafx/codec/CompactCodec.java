@@ -0,0 +1,293 @@
+package com.gdetotut.samples.jundo.javafx.codec;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.MoveUndo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact form of a run of {@link com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk} commands.
+ * <p>Each value is predicted and only the difference is written: the old value of a property is predicted by the
+ * new value the previous command left in it, the new value by the old one. A value equal to its prediction takes
+ * no bytes, a multiple of {@code 1/}{@value #QUANT} (whole pixels, slider steps, mouse positions) is written as the
+ * zigzag varint of its quantized delta, anything else as a raw double. Colors are packed RGBA ints.
+ * The encoding is lossless.
+ * <p>Layout of one command:
+ * <pre>
+ * byte    head: bits 0-1 tag, bits 2-3 property (double commands), bits 4-5 and 6-7 modes of old and new value
+ * byte    modes of old x, old y, new x, new y, 2 bits each        -- move commands only
+ * varint  resId
+ *         values not equal to their prediction
+ * </pre>
+ * <p>Commands depend on the ones before them, so {@link Encoder} and {@link Decoder} carry state and must see the
+ * same run; both are reset at the start of each independently decodable block.
+ */
+public final class CompactCodec {
+
+    /**
+     * Commands per block written by {@link BlockWriter}.
+     */
+    public static final int BLOCK = 256;
+
+    /**
+     * Values whose multiple of this is a whole number are written as integers.
+     */
+    public static final int QUANT = 1 << 10;
+
+    private static final int MODE_SAME = 0;
+    private static final int MODE_QUANT = 1;
+    private static final int MODE_RAW = 2;
+
+    /**
+     * Larger values are always raw, so quantizing them does not overflow a {@code long}.
+     */
+    private static final double QUANT_LIMIT = 1L << 52;
+
+    private static final DoubleProp[] PROPS = DoubleProp.values();
+
+    private CompactCodec() {
+    }
+
+    /**
+     * Values the next command is predicted from.
+     */
+    public abstract static class Predictor {
+
+        final double[] last = new double[PROPS.length];
+        int lastRgba;
+
+        Predictor() {
+        }
+
+        /**
+         * Forgets the commands seen so far, as at the start of a block.
+         */
+        public void reset() {
+            Arrays.fill(last, 0);
+            lastRgba = 0;
+        }
+    }
+
+    /**
+     * Not thread safe.
+     */
+    public static final class Encoder extends Predictor {
+
+        public void write(DataOutput out, UndoCommand cmd) throws IOException {
+            while (cmd instanceof CommandProxy) {
+                cmd = ((CommandProxy) cmd).get();
+            }
+            if (cmd instanceof ColorUndo) {
+                ColorUndo c = (ColorUndo) cmd;
+                int oldMode = c.getOldRgba() == lastRgba ? MODE_SAME : MODE_RAW;
+                int newMode = c.getNewRgba() == c.getOldRgba() ? MODE_SAME : MODE_RAW;
+                out.writeByte(CommandCodec.TAG_COLOR | oldMode << 4 | newMode << 6);
+                writeVarint(out, c.getResId());
+                if (oldMode == MODE_RAW) {
+                    out.writeInt(c.getOldRgba());
+                }
+                if (newMode == MODE_RAW) {
+                    out.writeInt(c.getNewRgba());
+                }
+                lastRgba = c.getNewRgba();
+            } else if (cmd instanceof DoublePropertyUndo) {
+                DoublePropertyUndo d = (DoublePropertyUndo) cmd;
+                int p = d.getProp().ordinal();
+                int oldMode = mode(d.getOldV(), last[p]);
+                int newMode = mode(d.getNewV(), d.getOldV());
+                out.writeByte(CommandCodec.TAG_DOUBLE | p << 2 | oldMode << 4 | newMode << 6);
+                writeVarint(out, d.getResId());
+                writeValue(out, oldMode, d.getOldV(), last[p]);
+                writeValue(out, newMode, d.getNewV(), d.getOldV());
+                last[p] = d.getNewV();
+            } else if (cmd instanceof MoveUndo) {
+                MoveUndo m = (MoveUndo) cmd;
+                int x = DoubleProp.X.ordinal();
+                int y = DoubleProp.Y.ordinal();
+                int oldXMode = mode(m.getOldX(), last[x]);
+                int oldYMode = mode(m.getOldY(), last[y]);
+                int newXMode = mode(m.getNewX(), m.getOldX());
+                int newYMode = mode(m.getNewY(), m.getOldY());
+                out.writeByte(CommandCodec.TAG_MOVE);
+                out.writeByte(oldXMode | oldYMode << 2 | newXMode << 4 | newYMode << 6);
+                writeVarint(out, m.getResId());
+                writeValue(out, oldXMode, m.getOldX(), last[x]);
+                writeValue(out, oldYMode, m.getOldY(), last[y]);
+                writeValue(out, newXMode, m.getNewX(), m.getOldX());
+                writeValue(out, newYMode, m.getNewY(), m.getOldY());
+                last[x] = m.getNewX();
+                last[y] = m.getNewY();
+            } else {
+                throw new IllegalArgumentException("Unsupported command: " + cmd.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Not thread safe.
+     */
+    public static final class Decoder extends Predictor {
+
+        /**
+         * @param owner Stack the command will belong to.
+         */
+        public UndoCommand read(ByteBuffer in, UndoStack owner) throws IOException {
+            int head = in.get() & 0xFF;
+            int tag = head & 3;
+            switch (tag) {
+                case CommandCodec.TAG_COLOR: {
+                    int resId = readVarint(in);
+                    int oldRgba = (head >>> 4 & 3) == MODE_SAME ? lastRgba : in.getInt();
+                    int newRgba = (head >>> 6 & 3) == MODE_SAME ? oldRgba : in.getInt();
+                    lastRgba = newRgba;
+                    return new ColorUndo(owner, null, resId, oldRgba, newRgba);
+                }
+                case CommandCodec.TAG_DOUBLE: {
+                    int p = head >>> 2 & 3;
+                    if (p >= PROPS.length) {
+                        throw new IOException("Unknown property: " + p);
+                    }
+                    int resId = readVarint(in);
+                    double oldV = readValue(in, head >>> 4 & 3, last[p]);
+                    double newV = readValue(in, head >>> 6 & 3, oldV);
+                    last[p] = newV;
+                    return new DoublePropertyUndo(owner, null, resId, PROPS[p], oldV, newV);
+                }
+                case CommandCodec.TAG_MOVE: {
+                    int modes = in.get() & 0xFF;
+                    int resId = readVarint(in);
+                    int x = DoubleProp.X.ordinal();
+                    int y = DoubleProp.Y.ordinal();
+                    double oldX = readValue(in, modes & 3, last[x]);
+                    double oldY = readValue(in, modes >>> 2 & 3, last[y]);
+                    double newX = readValue(in, modes >>> 4 & 3, oldX);
+                    double newY = readValue(in, modes >>> 6 & 3, oldY);
+                    last[x] = newX;
+                    last[y] = newY;
+                    return new MoveUndo(owner, null, resId, oldX, oldY, newX, newY);
+                }
+                default:
+                    throw new IOException("Unknown command tag: " + tag);
+            }
+        }
+    }
+
+    /**
+     * Writes commands in blocks of up to {@value #BLOCK}: an int length in bytes, then the commands, encoded from
+     * a reset state. A block can be decoded or skipped without looking at the ones before it.
+     * <p>Not thread safe.
+     */
+    public static final class BlockWriter {
+
+        private final DataOutput out;
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK * 16);
+        private final DataOutputStream blockOut = new DataOutputStream(block);
+        private final Encoder encoder = new Encoder();
+        private int count;
+
+        public BlockWriter(DataOutput out) {
+            this.out = out;
+        }
+
+        public void write(UndoCommand cmd) throws IOException {
+            encoder.write(blockOut, cmd);
+            if (++count == BLOCK) {
+                flush();
+            }
+        }
+
+        /**
+         * Ends the current block; must be called after the last command.
+         */
+        public void flush() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            out.writeInt(block.size());
+            out.write(block.toByteArray());
+            block.reset();
+            encoder.reset();
+            count = 0;
+        }
+    }
+
+    private static int mode(double v, double predicted) {
+        if (Double.doubleToLongBits(v) == Double.doubleToLongBits(predicted)) {
+            return MODE_SAME;
+        }
+        double q = v * QUANT;
+        // -0.0 and NaN fail the checks and stay raw.
+        if (q == Math.rint(q) && Math.abs(q) < QUANT_LIMIT && Math.abs(predicted * QUANT) < QUANT_LIMIT
+                && (q != 0 || Double.doubleToRawLongBits(v) == 0)) {
+            return MODE_QUANT;
+        }
+        return MODE_RAW;
+    }
+
+    private static void writeValue(DataOutput out, int mode, double v, double predicted) throws IOException {
+        if (mode == MODE_QUANT) {
+            writeVarlong(out, zigzag((long) (v * QUANT) - Math.round(predicted * QUANT)));
+        } else if (mode == MODE_RAW) {
+            out.writeDouble(v);
+        }
+    }
+
+    private static double readValue(ByteBuffer in, int mode, double predicted) throws IOException {
+        switch (mode) {
+            case MODE_SAME:
+                return predicted;
+            case MODE_QUANT:
+                return (Math.round(predicted * QUANT) + unzigzag(readVarlong(in))) / (double) QUANT;
+            case MODE_RAW:
+                return in.getDouble();
+            default:
+                throw new IOException("Unknown value mode: " + mode);
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarint(DataOutput out, int v) throws IOException {
+        writeVarlong(out, v & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarlong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        return (int) readVarlong(in);
+    }
+
+    private static long readVarlong(ByteBuffer in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+}
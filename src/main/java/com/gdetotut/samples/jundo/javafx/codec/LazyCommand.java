@@ -0,0 +1,222 @@
+package com.gdetotut.samples.jundo.javafx.codec;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stands in for a command stored in {@link CompactCodec.BlockWriter} form, and decodes it the first time it is run or
+ * asked for its caption.
+ * <p>While a restored stack is being built its commands are pushed and moved around, which would run each of them.
+ * Until {@link Source#setLive} is called they do nothing instead, so building a stack decodes nothing; nor do they
+ * while the stack is {@link ShapeContext#setDetached detached}.
+ * <p>A lazy command does not merge by itself: its {@link #id} is {@code -1} until it is decoded, and decoded commands
+ * are sealed, as restored {@link DoublePropertyUndo}s are. Once decoded, it merges as its command does, so that
+ * an unsealed one can take a merge replayed from a journal.
+ * <p>A decoded command may be dropped again with {@link Source#release}, and is decoded anew when next needed.
+ * One that has taken a merge holds more than the file and stays decoded.
+ */
+public final class LazyCommand extends UndoCommand implements CommandProxy {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Encoded commands shared by the lazy commands of one stack.
+     */
+    public static final class Source {
+
+        private final ByteBuffer buf;
+
+        private volatile boolean live;
+
+        /**
+         * Block last decoded, guarded by {@code this}. Undo and redo walk the stack in order,
+         * so a block is decoded once per pass, not once per command.
+         */
+        private int blockOffset = -1;
+        private UndoCommand[] block;
+
+        /**
+         * Decoded commands, oldest first, guarded by {@code this}.
+         */
+        private final ArrayDeque<LazyCommand> decoded = new ArrayDeque<>();
+
+        /**
+         * @param buf Blocks of commands; positions are absolute, the buffer's own position is not used.
+         */
+        public Source(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        /**
+         * From now on commands are decoded and run.
+         */
+        public void setLive() {
+            live = true;
+        }
+
+        /**
+         * Commands decoded and not released since.
+         */
+        public synchronized int getDecodedCount() {
+            return decoded.size();
+        }
+
+        /**
+         * Drops the decoded form of the oldest decoded commands until at most {@code keep} are left.
+         * Nothing is written: they are decoded from the buffer again when needed.
+         */
+        public synchronized void release(int keep) {
+            while (decoded.size() > keep) {
+                LazyCommand cmd = decoded.poll();
+                if (!cmd.merged) {
+                    cmd.target = null;
+                }
+            }
+            if (decoded.isEmpty()) {
+                block = null;
+                blockOffset = -1;
+            }
+        }
+
+        UndoCommand decode(int offset, int index, UndoStack owner) {
+            ByteBuffer in = buf.duplicate();
+            in.position(offset);
+            try {
+                synchronized (this) {
+                    if (blockOffset != offset) {
+                        block = decodeBlock(in, owner);
+                        blockOffset = offset;
+                    }
+                    return block[index];
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static UndoCommand sealed(UndoCommand cmd) {
+            if (cmd instanceof DoublePropertyUndo) {
+                ((DoublePropertyUndo) cmd).seal();
+            }
+            return cmd;
+        }
+
+        private static UndoCommand[] decodeBlock(ByteBuffer in, UndoStack owner) throws IOException {
+            int end = in.getInt();
+            end += in.position();
+            CompactCodec.Decoder decoder = new CompactCodec.Decoder();
+            List<UndoCommand> commands = new ArrayList<>();
+            while (in.position() < end) {
+                commands.add(sealed(decoder.read(in, owner)));
+            }
+            return commands.toArray(new UndoCommand[0]);
+        }
+    }
+
+    private final transient Source source;
+
+    private final int offset;
+
+    private final int index;
+
+    /**
+     * Written once, under the {@link Source} lock; commands may be decoded by a saver thread too.
+     */
+    private volatile UndoCommand target;
+
+    /**
+     * The decoded command took a merge and can not be decoded again; guarded by the {@link Source} lock.
+     */
+    private boolean merged;
+
+    /**
+     * @param offset Position of the block in a source of blocks.
+     * @param index  Number of the command within its block.
+     */
+    public LazyCommand(UndoStack owner, Source source, int offset, int index) {
+        super(owner, "", null);
+        this.source = source;
+        this.offset = offset;
+        this.index = index;
+    }
+
+    /**
+     * Decodes the command if not done yet.
+     */
+    @Override
+    public UndoCommand get() {
+        UndoCommand cmd = target;
+        if (cmd == null) {
+            synchronized (source) {
+                cmd = target;
+                if (cmd == null) {
+                    target = cmd = source.decode(offset, index, owner);
+                    source.decoded.add(this);
+                }
+            }
+        }
+        return cmd;
+    }
+
+    public boolean isDecoded() {
+        return target != null;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    @Override
+    public int id() {
+        UndoCommand cmd = target;
+        return cmd != null ? cmd.id() : -1;
+    }
+
+    @Override
+    public boolean mergeWith(UndoCommand cmd) {
+        UndoCommand t = target;
+        if (t == null || !t.mergeWith(cmd instanceof CommandProxy ? ((CommandProxy) cmd).get() : cmd)) {
+            return false;
+        }
+        synchronized (source) {
+            merged = true;
+        }
+        return true;
+    }
+
+    @Override
+    protected void doRedo() {
+        if (source.live && !ShapeContext.isDetached(owner)) {
+            get().redo();
+        }
+    }
+
+    @Override
+    protected void doUndo() {
+        if (source.live && !ShapeContext.isDetached(owner)) {
+            get().undo();
+        }
+    }
+
+    @Override
+    public String getCaption() {
+        return get().getCaption();
+    }
+
+    /**
+     * Serialized as the real command.
+     */
+    private Object writeReplace() {
+        return get();
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.gdetotut.samples.jundo.javafx.codec;
+
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_COLOR;
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_RADIUS;
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_X;
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_Y;
+
+/**
+ * Reads the JSON subject of a stack stored as an {@code UndoPacket} string by earlier builds, in one streaming pass.
+ * <p>Subjects are no longer written as JSON: a {@code BinaryUndoFile} keeps the shape's state as plain fields.
+ * Read are the maps those builds wrote, where every value was a JSON string of its own ({@code "radius":"40.0"},
+ * {@code "color":"\"#ff0000ff\""}), and the flat object {@code {"color":"#rrggbbaa","radius":40.0,...}}, without
+ * a map, reflection or a second parse of the whole.
+ */
+public final class SubjectCodec {
+
+    private SubjectCodec() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the JSON is malformed or misses a property.
+     */
+    public static ShapeState fromJson(String json) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            return read(reader);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new IllegalArgumentException("Not a shape subject: " + e.getMessage(), e);
+        }
+    }
+
+    private static ShapeState read(JsonReader in) throws IOException {
+        int rgba = 0;
+        double radius = Double.NaN;
+        double x = Double.NaN;
+        double y = Double.NaN;
+        // Bit per property found.
+        int found = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case IDS_COLOR:
+                    rgba = ColorCodec.fromJson(in.nextString());
+                    found |= 1;
+                    break;
+                case IDS_RADIUS:
+                    radius = nextDouble(in);
+                    found |= 2;
+                    break;
+                case IDS_X:
+                    x = nextDouble(in);
+                    found |= 4;
+                    break;
+                case IDS_Y:
+                    y = nextDouble(in);
+                    found |= 8;
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (found != 0xF) {
+            throw new IOException("Incomplete subject at " + in.getPath());
+        }
+        return new ShapeState(ColorCodec.fromRgba(rgba), radius, x, y);
+    }
+
+    /**
+     * A number, or a string holding one as earlier builds wrote it.
+     */
+    private static double nextDouble(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.STRING) {
+            return Double.parseDouble(in.nextString());
+        }
+        return in.nextDouble();
+    }
+
+}
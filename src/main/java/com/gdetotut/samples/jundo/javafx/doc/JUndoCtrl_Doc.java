@@ -0,0 +1,219 @@
+package com.gdetotut.samples.jundo.javafx.doc;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.jundo.UndoWatcher;
+import com.gdetotut.samples.jundo.javafx.BaseCtrl;
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.log.EventLog;
+import com.gdetotut.samples.jundo.javafx.log.EventType;
+import com.gdetotut.samples.jundo.javafx.metrics.MeteredDriver;
+import com.gdetotut.samples.jundo.javafx.metrics.MeteredWatcher;
+import com.gdetotut.samples.jundo.javafx.metrics.UndoMetrics;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.ui.PropertyCapture;
+import com.gdetotut.samples.jundo.javafx.ui.ShapeDrag;
+import com.gdetotut.samples.jundo.javafx.ui.UndoButtons;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+
+import java.util.Random;
+
+/**
+ * Controller for {@link JUndoTab_Doc}: a {@link ShapeDocument} of many shapes with one {@link ShapeHistory}.
+ * <p>The selected shape is {@link BaseTab#shape}, driven by the sliders exactly as in V1; the others are painted
+ * on a {@link Canvas} behind it, so the view holds no node per shape either. A click on a shape selects it.
+ * <p>The number of shapes is set by the {@code jundo.doc.shapes} system property.
+ */
+public class JUndoCtrl_Doc extends BaseCtrl implements UndoWatcher {
+
+    /**
+     * Source of this controller's events in {@link EventLog}.
+     */
+    private static final String SOURCE = "Doc";
+
+    private static final int DEFAULT_SHAPES = 1000;
+
+    private final BaseTab tab;
+
+    private final UndoStack stack;
+
+    private final UndoDriver driver;
+
+    private final ShapeDocument doc;
+
+    private final ShapeHistory history;
+
+    private final PropertyCapture capture;
+
+    private final UndoButtons buttons;
+
+    private final EventLog log = EventLog.shared();
+
+    private final Canvas view = new Canvas(400, 300);
+
+    private boolean scheduled;
+
+    private final AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            paint();
+        }
+    };
+
+    public JUndoCtrl_Doc(BaseTab tab) {
+        this.tab = tab;
+
+        doc = populate(Integer.getInteger("jundo.doc.shapes", DEFAULT_SHAPES));
+        stack = new UndoStack(doc, null);
+        // Commands write to the shape the document points to, whichever it is.
+        ShapeContext.install(stack).resources(new Resources_V1()).bind(doc.binding());
+        UndoMetrics metrics = new UndoMetrics().register(SOURCE);
+        tab.onDiscarded(metrics::unregister);
+        buttons = new UndoButtons(tab, stack);
+        stack.setWatcher(new MeteredWatcher(this, metrics));
+
+        driver = new MeteredDriver(stack, metrics);
+        history = new ShapeHistory(driver, doc);
+
+        capture = new PropertyCapture(tab, driver);
+        new ShapeDrag(tab, driver, capture);
+
+        tab.canvas.getChildren().add(0, view);
+        tab.canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, this::pressed);
+        doc.setOnChange(id -> {
+            if (id == history.getSelected()) {
+                load(id);
+            } else {
+                invalidate();
+            }
+        });
+        capture.apply(() -> select(0));
+
+        buttons.refresh();
+
+        tab.undoBtn.setOnAction(event -> capture.apply(driver::undo));
+        tab.redoBtn.setOnAction(event -> capture.apply(driver::redo));
+        // Documents are not stored yet; the clean mark is only a point to revert to.
+        tab.saveBtn.setOnAction(event -> capture.apply(driver::setClean));
+        tab.revertBtn.setOnAction(event -> capture.apply(() -> {
+            if (stack.getCleanIdx() >= 0) {
+                driver.setIndex(stack.getCleanIdx());
+            }
+        }));
+        tab.serialBtn.setOnAction(event -> capture.apply(() -> history.undoLast(history.getSelected())));
+    }
+
+    /**
+     * Shapes scattered over the view, the same ones every run.
+     */
+    private static ShapeDocument populate(int count) {
+        ShapeDocument doc = new ShapeDocument(count);
+        Random random = new Random(count);
+        for (int i = 0; i < count; ++i) {
+            doc.add(new ShapeState(Color.hsb(random.nextDouble() * 360, 0.7, 0.9),
+                    10 + random.nextDouble() * 10, random.nextDouble() * 400, random.nextDouble() * 300));
+        }
+        return doc;
+    }
+
+    private void select(int id) {
+        history.select(id);
+        load(id);
+        invalidate();
+    }
+
+    /**
+     * Sets the widgets to the shape's state; runs within {@link PropertyCapture#apply}.
+     */
+    private void load(int id) {
+        tab.colorPicker.setValue(doc.getColor(id));
+        tab.radius.setValue(doc.get(id, DoubleProp.RADIUS));
+        tab.centerX.setValue(doc.get(id, DoubleProp.X));
+        tab.centerY.setValue(doc.get(id, DoubleProp.Y));
+    }
+
+    /**
+     * Selects the topmost shape under the mouse; the selected one itself is dragged by {@link ShapeDrag}.
+     */
+    private void pressed(MouseEvent e) {
+        if (e.getTarget() != view || !e.isPrimaryButtonDown()) {
+            return;
+        }
+        int selected = history.getSelected();
+        for (int i = doc.size() - 1; i >= 0; --i) {
+            double dx = e.getX() - doc.get(i, DoubleProp.X);
+            double dy = e.getY() - doc.get(i, DoubleProp.Y);
+            double r = doc.get(i, DoubleProp.RADIUS);
+            if (i != selected && dx * dx + dy * dy <= r * r) {
+                int id = i;
+                capture.apply(() -> select(id));
+                e.consume();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Schedules a repaint for the next pulse.
+     */
+    private void invalidate() {
+        if (!scheduled) {
+            scheduled = true;
+            pulse.start();
+        }
+    }
+
+    private void paint() {
+        scheduled = false;
+        pulse.stop();
+        GraphicsContext g = view.getGraphicsContext2D();
+        g.clearRect(0, 0, view.getWidth(), view.getHeight());
+        int selected = history.getSelected();
+        for (int i = 0; i < doc.size(); ++i) {
+            if (i != selected) {
+                double r = doc.get(i, DoubleProp.RADIUS);
+                g.setFill(doc.getColor(i));
+                g.fillOval(doc.get(i, DoubleProp.X) - r, doc.get(i, DoubleProp.Y) - r, r * 2, r * 2);
+            }
+        }
+    }
+
+    @Override
+    public void indexChanged(int idx) {
+        buttons.invalidate();
+    }
+
+    @Override
+    public void cleanChanged(boolean clean) {
+        buttons.invalidate();
+        log.log(SOURCE, EventType.CLEAN_CHANGED, clean);
+    }
+
+    @Override
+    public void canUndoChanged(boolean canUndo) {
+        log.log(SOURCE, EventType.CAN_UNDO_CHANGED, canUndo);
+    }
+
+    @Override
+    public void canRedoChanged(boolean canRedo) {
+        log.log(SOURCE, EventType.CAN_REDO_CHANGED, canRedo);
+    }
+
+    @Override
+    public void undoTextChanged(String undoText) {
+        log.log(SOURCE, EventType.UNDO_TEXT_CHANGED, 0, undoText);
+    }
+
+    @Override
+    public void redoTextChanged(String redoText) {
+        log.log(SOURCE, EventType.REDO_TEXT_CHANGED, 0, redoText);
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.gdetotut.samples.jundo.javafx.doc;
+
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import javafx.scene.shape.Circle;
+
+/**
+ * Many shapes with one shared history; {@link #shape} is the selected one.
+ */
+public class JUndoTab_Doc extends BaseTab {
+
+    public JUndoTab_Doc(String text) {
+        super(text, new Circle());
+        new JUndoCtrl_Doc(this);
+        serialBtn.setText("Undo last change of this shape");
+    }
+}
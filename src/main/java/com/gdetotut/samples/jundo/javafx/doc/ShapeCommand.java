@@ -0,0 +1,92 @@
+package com.gdetotut.samples.jundo.javafx.doc;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+
+/**
+ * A command of a {@link ShapeDocument}'s shared stack: one of the {@code UndoBulk} commands, addressed to a shape.
+ * <p>Running it points the document's binding to the shape, then runs the wrapped command, which writes through
+ * the binding as usual; so dispatch is one array store whatever the number of shapes.
+ * <p>Commands of one shape are chained by stack index, see {@link ShapeHistory}.
+ */
+public final class ShapeCommand extends UndoCommand {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ShapeDocument doc;
+
+    final int shapeId;
+
+    final UndoCommand target;
+
+    /**
+     * Stack index of the shape's previous command, {@code -1} if none.
+     */
+    int prev = -1;
+
+    /**
+     * Stack index of the command {@link ShapeHistory#undoLast} reverts while this one is the shape's latest,
+     * {@code -1} if there is nothing left to revert.
+     */
+    int undoTarget;
+
+    /**
+     * Whether this reverts an earlier command; then {@link #undoTarget} is set before the push.
+     */
+    final boolean inverse;
+
+    ShapeCommand(UndoStack owner, ShapeDocument doc, int shapeId, UndoCommand target) {
+        this(owner, doc, shapeId, target, false);
+    }
+
+    ShapeCommand(UndoStack owner, ShapeDocument doc, int shapeId, UndoCommand target, boolean inverse) {
+        super(owner, "", null);
+        this.doc = doc;
+        this.shapeId = shapeId;
+        this.target = target;
+        this.inverse = inverse;
+    }
+
+    public int getShapeId() {
+        return shapeId;
+    }
+
+    public UndoCommand getTarget() {
+        return target;
+    }
+
+    @Override
+    protected void doRedo() {
+        doc.at(shapeId);
+        target.redo();
+    }
+
+    @Override
+    protected void doUndo() {
+        doc.at(shapeId);
+        target.undo();
+    }
+
+    @Override
+    public int id() {
+        return target.id();
+    }
+
+    /**
+     * Only changes of the same shape merge; reverts never do, each stays a step of its own.
+     */
+    @Override
+    public boolean mergeWith(UndoCommand cmd) {
+        if (!inverse && cmd instanceof ShapeCommand) {
+            ShapeCommand other = (ShapeCommand) cmd;
+            return !other.inverse && other.shapeId == shapeId && target.mergeWith(other.target);
+        }
+        return false;
+    }
+
+    @Override
+    public String getCaption() {
+        return target.getCaption() + " #" + shapeId;
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.gdetotut.samples.jundo.javafx.doc;
+
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.codec.ColorCodec;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import javafx.beans.value.WritableDoubleValue;
+import javafx.beans.value.WritableObjectValue;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Many shapes addressed by id, {@code 0..size-1}.
+ * <p>States are kept column-wise in primitive arrays, so a shape costs its color, radius and center and nothing more:
+ * no object, listener or binding per shape.
+ * <p>Commands reach the shapes through one shared {@link #binding()}: {@link #at} points it to a shape, then
+ * the commands' {@link ShapeContext} writes go straight to that shape's slots. Every write is reported to
+ * the change listener with the shape's id.
+ * <p>Not thread safe; used on the FX thread.
+ */
+public final class ShapeDocument {
+
+    private static final DoubleProp[] PROPS = DoubleProp.values();
+
+    private int size;
+
+    private int[] rgba;
+
+    /**
+     * Values by {@link DoubleProp#ordinal}, then by shape id.
+     */
+    private final double[][] values = new double[PROPS.length][];
+
+    private int cursor;
+
+    private IntConsumer onChange = id -> {
+    };
+
+    private final ShapeContext.Binding binding;
+
+    public ShapeDocument(int capacity) {
+        capacity = Math.max(capacity, 1);
+        rgba = new int[capacity];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = new double[capacity];
+        }
+        WritableDoubleValue[] slots = new WritableDoubleValue[PROPS.length];
+        for (DoubleProp prop : PROPS) {
+            slots[prop.ordinal()] = new DoubleSlot(prop.ordinal());
+        }
+        binding = new ShapeContext.Binding(new ColorSlot(), slots);
+    }
+
+    /**
+     * Adds a shape.
+     *
+     * @return Its id.
+     */
+    public int add(ShapeState state) {
+        if (size == rgba.length) {
+            int capacity = size * 2;
+            rgba = Arrays.copyOf(rgba, capacity);
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = Arrays.copyOf(values[i], capacity);
+            }
+        }
+        int id = size++;
+        rgba[id] = ColorCodec.toRgba(state.color.get());
+        values[DoubleProp.RADIUS.ordinal()][id] = state.radius.get();
+        values[DoubleProp.X.ordinal()][id] = state.x.get();
+        values[DoubleProp.Y.ordinal()][id] = state.y.get();
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Called with the id of a shape after each change of its state.
+     */
+    public void setOnChange(IntConsumer onChange) {
+        this.onChange = onChange;
+    }
+
+    /**
+     * Points {@link #binding()} to the shape.
+     */
+    public ShapeDocument at(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No shape " + id);
+        }
+        cursor = id;
+        return this;
+    }
+
+    /**
+     * Slots of the shape {@link #at} points to; bind the stack's {@link ShapeContext} to it.
+     */
+    public ShapeContext.Binding binding() {
+        return binding;
+    }
+
+    public Color getColor(int id) {
+        return ColorCodec.fromRgba(rgba[id]);
+    }
+
+    public double get(int id, DoubleProp prop) {
+        return values[prop.ordinal()][id];
+    }
+
+    /**
+     * Copy of the shape's state.
+     */
+    public ShapeState get(int id) {
+        return new ShapeState(getColor(id), get(id, DoubleProp.RADIUS), get(id, DoubleProp.X), get(id, DoubleProp.Y));
+    }
+
+    private final class ColorSlot implements WritableObjectValue<Color> {
+
+        @Override
+        public Color get() {
+            return getColor(cursor);
+        }
+
+        @Override
+        public void set(Color value) {
+            rgba[cursor] = ColorCodec.toRgba(value);
+            onChange.accept(cursor);
+        }
+
+        @Override
+        public Color getValue() {
+            return get();
+        }
+
+        @Override
+        public void setValue(Color value) {
+            set(value);
+        }
+    }
+
+    private final class DoubleSlot implements WritableDoubleValue {
+
+        private final int prop;
+
+        DoubleSlot(int prop) {
+            this.prop = prop;
+        }
+
+        @Override
+        public double get() {
+            return values[prop][cursor];
+        }
+
+        @Override
+        public void set(double value) {
+            values[prop][cursor] = value;
+            onChange.accept(cursor);
+        }
+
+        @Override
+        public Number getValue() {
+            return get();
+        }
+
+        @Override
+        public void setValue(Number value) {
+            set(value.doubleValue());
+        }
+    }
+
+}
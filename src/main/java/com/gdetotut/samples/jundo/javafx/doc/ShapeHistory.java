@@ -0,0 +1,149 @@
+package com.gdetotut.samples.jundo.javafx.doc;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.MoveUndo;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+
+import java.util.Arrays;
+
+/**
+ * One stack shared by all shapes of a {@link ShapeDocument}, indexed by shape.
+ * <p>Every pushed command is wrapped into a {@link ShapeCommand} of the selected shape. The commands of a shape form
+ * a chain through the stack, from the newest one, whose index is kept per shape, back to the first; so the history
+ * of one shape is found without scanning the others. The index costs an {@code int} per shape and two per command.
+ * <p>{@link #undoLast} reverts the latest change of one shape that is not reverted yet by pushing its inverse.
+ * The rest of the stack is not touched, so the revert itself is undone and redone as any other command.
+ */
+public final class ShapeHistory implements UndoDriver.Listener {
+
+    private final UndoDriver driver;
+
+    private final UndoStack stack;
+
+    private final ShapeDocument doc;
+
+    /**
+     * Stack index of each shape's newest command, {@code -1} if none.
+     */
+    private int[] head = new int[0];
+
+    private int selected = -1;
+
+    /**
+     * Sets itself as the driver's wrapper and listener.
+     */
+    public ShapeHistory(UndoDriver driver, ShapeDocument doc) {
+        this.driver = driver;
+        this.stack = driver.getStack();
+        this.doc = doc;
+        driver.setWrapper(this::wrap);
+        driver.addListener(this);
+    }
+
+    /**
+     * Shape the pushed commands are addressed to.
+     */
+    public void select(int id) {
+        doc.at(id);
+        selected = id;
+    }
+
+    public int getSelected() {
+        return selected;
+    }
+
+    private UndoCommand wrap(UndoCommand cmd) {
+        return cmd instanceof ShapeCommand ? cmd : new ShapeCommand(stack, doc, selected, cmd);
+    }
+
+    /**
+     * The redo tail is dropped by the push: heads go back past its commands.
+     */
+    @Override
+    public void beforePush(UndoCommand cmd) {
+        for (int i = stack.count() - 1; i >= stack.getIdx(); --i) {
+            ShapeCommand c = command(i);
+            head[c.shapeId] = c.prev;
+        }
+    }
+
+    @Override
+    public void pushed(UndoCommand cmd) {
+        int idx = stack.getIdx() - 1;
+        if (idx < 0 || stack.getCommand(idx) != cmd) {
+            // Merged into the shape's newest command.
+            return;
+        }
+        ShapeCommand c = (ShapeCommand) cmd;
+        if (c.shapeId >= head.length) {
+            int from = head.length;
+            head = Arrays.copyOf(head, Math.max(doc.size(), c.shapeId + 1));
+            Arrays.fill(head, from, head.length, -1);
+        }
+        c.prev = head[c.shapeId];
+        if (!c.inverse) {
+            c.undoTarget = idx;
+        }
+        head[c.shapeId] = idx;
+    }
+
+    /**
+     * Stack index of the shape's newest command before the current index, {@code -1} if none.
+     * <p>Only the shape's own commands in the redo tail are stepped over.
+     */
+    public int latest(int id) {
+        int k = id < head.length ? head[id] : -1;
+        int idx = stack.getIdx();
+        while (k >= idx) {
+            k = command(k).prev;
+        }
+        return k;
+    }
+
+    /**
+     * Reverts the latest change of the shape that is not reverted yet; repeated calls go further back.
+     *
+     * @return {@code false} if there is nothing to revert.
+     */
+    public boolean undoLast(int id) {
+        int k = latest(id);
+        int t = k < 0 ? -1 : command(k).undoTarget;
+        if (t < 0) {
+            return false;
+        }
+        ShapeCommand target = command(t);
+        ShapeCommand revert = new ShapeCommand(stack, doc, id, invert(target.target), true);
+        // Once this revert is the newest, the one to revert next is what preceded the target.
+        revert.undoTarget = target.prev < 0 ? -1 : command(target.prev).undoTarget;
+        driver.push(revert);
+        return true;
+    }
+
+    private ShapeCommand command(int idx) {
+        return (ShapeCommand) stack.getCommand(idx);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the command is not one of the {@code UndoBulk} ones.
+     */
+    private UndoCommand invert(UndoCommand cmd) {
+        if (cmd instanceof ColorUndo) {
+            ColorUndo c = (ColorUndo) cmd;
+            return new ColorUndo(stack, null, c.getResId(), c.getNewRgba(), c.getOldRgba());
+        } else if (cmd instanceof DoublePropertyUndo) {
+            DoublePropertyUndo d = (DoublePropertyUndo) cmd;
+            DoublePropertyUndo inverse = new DoublePropertyUndo(stack, null, d.getResId(), d.getProp(),
+                    d.getNewV(), d.getOldV());
+            inverse.seal();
+            return inverse;
+        } else if (cmd instanceof MoveUndo) {
+            MoveUndo m = (MoveUndo) cmd;
+            return new MoveUndo(stack, null, m.getResId(), m.getNewX(), m.getNewY(), m.getOldX(), m.getOldY());
+        }
+        throw new IllegalArgumentException("Unsupported command: " + cmd.getClass().getName());
+    }
+
+}
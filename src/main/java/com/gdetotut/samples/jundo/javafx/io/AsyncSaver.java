@@ -0,0 +1,161 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.samples.jundo.javafx.metrics.UndoMetrics;
+import javafx.application.Platform;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Saves an {@link UndoJournal} without blocking the FX thread.
+ * <p>{@link #save} runs {@link UndoJournal#prepare} on the FX thread: that only encodes the operations since the previous save,
+ * or takes a cheap {@link StackSnapshot}. Encoding the snapshot and file I/O run on a single background thread,
+ * so writes keep their order. Callbacks come back on the FX thread.
+ * <p>Requests made while a save is running are coalesced: one more save follows it and covers all of them.
+ * A failed save makes the next one store a full snapshot.
+ * <p>{@link #close} the saver together with its stack: that stops the background thread once pending saves are done.
+ */
+public class AsyncSaver implements Closeable {
+
+    private static final class Request {
+        final Runnable onSaved;
+        final Consumer<? super Throwable> onFailed;
+
+        Request(Runnable onSaved, Consumer<? super Throwable> onFailed) {
+            this.onSaved = onSaved;
+            this.onFailed = onFailed;
+        }
+    }
+
+    private final UndoJournal journal;
+
+    private final Executor fxThread;
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "undo-saver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Requests not yet served by a started save. FX thread only, as are the fields below.
+     */
+    private final List<Request> waiting = new ArrayList<>();
+
+    private boolean running;
+
+    private boolean closed;
+
+    private UndoMetrics metrics;
+
+    public AsyncSaver(UndoJournal journal) {
+        this(journal, Platform::runLater);
+    }
+
+    /**
+     * @param fxThread Runs callbacks on the thread that drives the stack.
+     */
+    public AsyncSaver(UndoJournal journal, Executor fxThread) {
+        this.journal = journal;
+        this.fxThread = fxThread;
+    }
+
+    /**
+     * Must be called on the FX thread.
+     *
+     * @param onSaved  Called on the FX thread once everything done before this call is on disk; may be {@code null}.
+     * @param onFailed Called on the FX thread if that save failed; may be {@code null}.
+     */
+    public void save(Runnable onSaved, Consumer<? super Throwable> onFailed) {
+        if (closed) {
+            throw new IllegalStateException("Saver is closed");
+        }
+        waiting.add(new Request(onSaved, onFailed));
+        if (!running) {
+            start();
+        }
+    }
+
+    /**
+     * Saves will be timed into {@code metrics}; from the FX thread's request to the end of the file work.
+     */
+    public void setMetrics(UndoMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Lets the running save and those already requested finish, then stops the background thread. FX thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (!running) {
+            io.shutdown();
+        }
+    }
+
+    private void start() {
+        List<Request> batch = new ArrayList<>(waiting);
+        waiting.clear();
+        long start = System.nanoTime();
+        UndoMetrics m = metrics;
+        UndoJournal.Write write;
+        try {
+            write = journal.prepare();
+        } catch (Exception e) {
+            journal.invalidate();
+            finish(batch, e);
+            return;
+        }
+        running = true;
+        io.execute(() -> {
+            Throwable error = null;
+            try {
+                long bytes = write != null ? write.run() : 0;
+                if (m != null) {
+                    m.recordSave(System.nanoTime() - start, bytes);
+                }
+            } catch (Throwable e) {
+                error = e;
+            }
+            Throwable result = error;
+            fxThread.execute(() -> done(batch, result));
+        });
+    }
+
+    private void done(List<Request> batch, Throwable error) {
+        running = false;
+        if (error != null) {
+            journal.invalidate();
+        }
+        finish(batch, error);
+        if (!waiting.isEmpty()) {
+            start();
+        }
+        if (closed && !running) {
+            io.shutdown();
+        }
+    }
+
+    private static void finish(List<Request> batch, Throwable error) {
+        for (Request r : batch) {
+            if (error == null) {
+                if (r.onSaved != null) {
+                    r.onSaved.run();
+                }
+            } else if (r.onFailed != null) {
+                r.onFailed.accept(error);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.codec.ColorCodec;
+import com.gdetotut.samples.jundo.javafx.codec.CompactCodec;
+import com.gdetotut.samples.jundo.javafx.codec.LazyCommand;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary on-disk form of a stack, read through a memory-mapped buffer.
+ * <p>Layout (big-endian):
+ * <pre>
+ * int    magic "UNDB"
+ * byte   format
+ * short  id length, id bytes (UTF-8)
+ * int    subject version
+ * int    color (RGBA), double radius, double x, double y   -- the subject, see {@link ShapeState}
+ * int    count, int idx, int cleanIdx
+ * count  commands in {@link CompactCodec.BlockWriter} form
+ * </pre>
+ * <p>{@link #open} only parses the header, so checking stack id and version touches the first page of the file.
+ * Commands are decoded straight from the mapped buffer by {@link #restore}, or on demand with {@link #restoreLazy};
+ * the file is never copied onto the heap.
+ */
+public final class BinaryUndoFile {
+
+    private static final int MAGIC = 0x554E4442; // "UNDB"
+    private static final byte FORMAT = 2;
+
+    private final MappedByteBuffer buf;
+
+    private final String id;
+    private final int version;
+    private final int subjOffset;
+
+    private BinaryUndoFile(MappedByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.getInt() != MAGIC) {
+            throw new IOException("Not an undo file");
+        }
+        byte format = buf.get();
+        if (format != FORMAT) {
+            throw new IOException("Unknown undo file format: " + format);
+        }
+        byte[] idBytes = new byte[buf.getShort()];
+        buf.get(idBytes);
+        id = new String(idBytes, StandardCharsets.UTF_8);
+        version = buf.getInt();
+        subjOffset = buf.position();
+    }
+
+    /**
+     * Maps the file and reads its header.
+     */
+    public static BinaryUndoFile open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            return new BinaryUndoFile(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    public static boolean isBinary(byte[] head) {
+        return head.length >= 4 && ByteBuffer.wrap(head).getInt() == MAGIC;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public ShapeState readSubject() {
+        ByteBuffer in = body(subjOffset);
+        return new ShapeState(ColorCodec.fromRgba(in.getInt()), in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    /**
+     * Decodes the commands into a new stack with {@code subj} as its subject.
+     * <p>Local contexts of the returned stack are placeholders; register the real ones before use.
+     */
+    public UndoStack restore(Object subj) throws IOException {
+        ByteBuffer in = body(subjOffset + 4 + 3 * 8);
+        int count = in.getInt();
+        int idx = in.getInt();
+        int cleanIdx = in.getInt();
+        StackBuilder builder = new StackBuilder(subj);
+        CompactCodec.Decoder decoder = new CompactCodec.Decoder();
+        for (int i = 0; i < count; ++i) {
+            if (i % CompactCodec.BLOCK == 0) {
+                in.getInt();
+                decoder.reset();
+            }
+            builder.add(decoder.read(in, builder.getStack()));
+        }
+        return builder.finish(idx, cleanIdx);
+    }
+
+    /**
+     * Same as {@link #restore}, but commands are decoded only when first run or asked for their caption,
+     * see {@link LazyCommand}. Opening takes one pass over the block lengths.
+     * <p>It is still linear in the number of commands: each gets a stand-in object and a push, and the index is moved
+     * to the clean mark and back, all without decoding.
+     * <p>The stack keeps the file mapped for as long as it lives.
+     */
+    public UndoStack restoreLazy(Object subj) throws IOException {
+        ByteBuffer in = body(subjOffset + 4 + 3 * 8);
+        int count = in.getInt();
+        int idx = in.getInt();
+        int cleanIdx = in.getInt();
+        LazyCommand.Source source = new LazyCommand.Source(buf);
+        StackBuilder builder = new StackBuilder(subj);
+        for (int from = 0; from < count; from += CompactCodec.BLOCK) {
+            int offset = in.position();
+            in.position(offset + 4 + in.getInt());
+            for (int i = 0; i < Math.min(CompactCodec.BLOCK, count - from); ++i) {
+                builder.add(new LazyCommand(builder.getStack(), source, offset, i));
+            }
+        }
+        UndoStack stack = builder.finish(idx, cleanIdx);
+        source.setLive();
+        return stack;
+    }
+
+    /**
+     * Encodes the stack together with the subject state.
+     */
+    public static byte[] encode(UndoStack stack, String id, int version, ShapeState subj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + stack.count() * 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, id, version, subj, stack.count(), stack.getIdx(), stack.getCleanIdx());
+        CompactCodec.BlockWriter commands = new CompactCodec.BlockWriter(out);
+        for (int i = 0; i < stack.count(); ++i) {
+            commands.write(stack.getCommand(i));
+        }
+        commands.flush();
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the same stack under another subject version and state, e.g. after a migration.
+     * <p>Indexes and commands are copied from the mapping as they are; nothing is decoded or copied onto the heap.
+     */
+    public void copyTo(Path target, int version, ShapeState subj) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(head);
+        writeSubject(out, id, version, subj);
+        out.flush();
+        try (FileChannel ch = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] parts = {ByteBuffer.wrap(head.toByteArray()), body(subjOffset + 4 + 3 * 8)};
+            while (parts[1].hasRemaining()) {
+                ch.write(parts);
+            }
+        }
+    }
+
+    /**
+     * Everything up to the first command.
+     */
+    static void writeHeader(DataOutput out, String id, int version, ShapeState subj,
+                            int count, int idx, int cleanIdx) throws IOException {
+        writeSubject(out, id, version, subj);
+        out.writeInt(count);
+        out.writeInt(idx);
+        out.writeInt(cleanIdx);
+    }
+
+    private static void writeSubject(DataOutput out, String id, int version, ShapeState subj) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT);
+        out.writeShort(idBytes.length);
+        out.write(idBytes);
+        out.writeInt(version);
+        out.writeInt(ColorCodec.toRgba(subj.color.get()));
+        out.writeDouble(subj.radius.get());
+        out.writeDouble(subj.x.get());
+        out.writeDouble(subj.y.get());
+    }
+
+    private ByteBuffer body(int offset) {
+        ByteBuffer in = buf.duplicate();
+        in.position(offset);
+        return in;
+    }
+
+}
@@ -0,0 +1,452 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.MoveUndo;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.codec.ColorCodec;
+import com.gdetotut.samples.jundo.javafx.codec.CommandProxy;
+
+import java.util.Arrays;
+
+/**
+ * History of the {@code UndoBulk} commands kept in parallel primitive arrays instead of one object per command.
+ * <p>A row is a type byte, a resource id, old and new values, and old and new colors: 29 bytes, so a million steps take
+ * about 30 MB. A move takes two rows, {@link #MOVE} with x and {@link #MOVE_Y} with y. Nothing is allocated per step;
+ * {@link #entry} is a flyweight view of a row, and {@link Entry#toCommand} builds a real command only when one is needed.
+ * <p>Undo, redo and push work as with an {@link UndoStack}: a push drops the redo tail, and a value pushed onto a value
+ * of the same property merges into it, as {@link DoublePropertyUndo} does, unless the index is the clean one or the
+ * row was copied by {@link #of}: whether those merge was already decided by the stack they came from.
+ * The values are written to the {@link ShapeContext} given, the widgets or a {@code ShapeState}.
+ * <p>Scans such as {@link #lastIndexOf} run over the type column alone.
+ * <p>This is a standalone engine: no tab drives it, and it has no {@code UndoDriver}, journal or saver behind it.
+ * Use {@link #of} and {@link #toStack} to move a history between it and an {@link UndoStack}.
+ */
+public final class ColumnarHistory {
+
+    /**
+     * Row types; a {@link DoubleProp} is {@code ordinal + 1}.
+     */
+    public static final byte COLOR = 0;
+    public static final byte RADIUS = 1;
+    public static final byte X = 2;
+    public static final byte Y = 3;
+    public static final byte MOVE = 4;
+    public static final byte MOVE_Y = 5;
+
+    /**
+     * Bytes per row.
+     */
+    public static final int ROW_BYTES = 1 + 4 + 8 + 8 + 4 + 4;
+
+    private static final DoubleProp[] PROPS = DoubleProp.values();
+
+    /**
+     * Flyweight view of a row; positioned by {@link #entry}, valid until the next call.
+     */
+    public final class Entry {
+
+        private int row;
+
+        private Entry() {
+        }
+
+        /**
+         * First row of the step.
+         */
+        public int getRow() {
+            return row;
+        }
+
+        public byte getType() {
+            return type[row];
+        }
+
+        public int getResId() {
+            return resId[row];
+        }
+
+        /**
+         * Value of a {@link DoubleProp} row, x of a move.
+         */
+        public double getOldV() {
+            return oldV[row];
+        }
+
+        public double getNewV() {
+            return newV[row];
+        }
+
+        public double getOldY() {
+            return oldV[row + 1];
+        }
+
+        public double getNewY() {
+            return newV[row + 1];
+        }
+
+        public int getOldRgba() {
+            return oldRgba[row];
+        }
+
+        public int getNewRgba() {
+            return newRgba[row];
+        }
+
+        public String getCaption() {
+            return ctx.caption(resId[row]);
+        }
+
+        /**
+         * The step as a command of {@code owner}.
+         */
+        public UndoCommand toCommand(UndoStack owner) {
+            switch (type[row]) {
+                case COLOR:
+                    return new ColorUndo(owner, null, resId[row], oldRgba[row], newRgba[row]);
+                case MOVE:
+                    return new MoveUndo(owner, null, resId[row], oldV[row], oldV[row + 1], newV[row], newV[row + 1]);
+                default:
+                    return new DoublePropertyUndo(owner, null, resId[row], PROPS[type[row] - 1], oldV[row], newV[row]);
+            }
+        }
+    }
+
+    private final ShapeContext ctx;
+
+    private final Entry entry = new Entry();
+
+    private byte[] type;
+    private int[] resId;
+    private double[] oldV;
+    private double[] newV;
+    private int[] oldRgba;
+    private int[] newRgba;
+
+    private int size;
+
+    /**
+     * Rows applied; always at a step boundary.
+     */
+    private int idx;
+
+    private int cleanIdx = 0;
+
+    /**
+     * Rows below this one are never merged into; see {@link #of}.
+     */
+    private int mergeFrom;
+
+    /**
+     * @param ctx Where the values are written; its resources give the captions.
+     */
+    public ColumnarHistory(ShapeContext ctx, int capacity) {
+        this.ctx = ctx;
+        capacity = Math.max(capacity, 16);
+        type = new byte[capacity];
+        resId = new int[capacity];
+        oldV = new double[capacity];
+        newV = new double[capacity];
+        oldRgba = new int[capacity];
+        newRgba = new int[capacity];
+    }
+
+    /**
+     * Copies the commands, the index and the clean mark of a stack; nothing is run.
+     *
+     * @throws IllegalArgumentException if the stack holds a command other than the {@code UndoBulk} ones.
+     */
+    public static ColumnarHistory of(UndoStack stack, ShapeContext ctx) {
+        ColumnarHistory history = new ColumnarHistory(ctx, stack.count());
+        int idx = 0;
+        int cleanIdx = -1;
+        for (int i = 0; i < stack.count(); ++i) {
+            if (i == stack.getIdx()) {
+                idx = history.size;
+            }
+            if (i == stack.getCleanIdx()) {
+                cleanIdx = history.size;
+            }
+            history.append(stack.getCommand(i));
+        }
+        history.idx = stack.getIdx() == stack.count() ? history.size : idx;
+        history.cleanIdx = stack.getCleanIdx() == stack.count() ? history.size : cleanIdx;
+        history.mergeFrom = history.size;
+        return history;
+    }
+
+    /**
+     * A new stack with the same steps, index and clean mark; its local contexts are placeholders.
+     */
+    public UndoStack toStack(Object subj) {
+        StackBuilder builder = new StackBuilder(subj);
+        int newIdx = 0;
+        int newCleanIdx = -1;
+        for (int row = 0; row <= size; row = next(row)) {
+            if (row == idx) {
+                newIdx = builder.getStack().count();
+            }
+            if (row == cleanIdx) {
+                newCleanIdx = builder.getStack().count();
+            }
+            if (row == size) {
+                break;
+            }
+            builder.add(entry(row).toCommand(builder.getStack()));
+        }
+        return builder.finish(newIdx, newCleanIdx);
+    }
+
+    /**
+     * Rows; a move counts two.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rows applied.
+     */
+    public int getIdx() {
+        return idx;
+    }
+
+    public boolean canUndo() {
+        return idx > 0;
+    }
+
+    public boolean canRedo() {
+        return idx < size;
+    }
+
+    public void setClean() {
+        cleanIdx = idx;
+    }
+
+    public boolean isClean() {
+        return idx == cleanIdx;
+    }
+
+    /**
+     * View of the step starting at {@code row}.
+     */
+    public Entry entry(int row) {
+        if (row < 0 || row >= size || type[row] == MOVE_Y) {
+            throw new IndexOutOfBoundsException("No step at row " + row);
+        }
+        entry.row = row;
+        return entry;
+    }
+
+    /**
+     * Caption of the step undo would revert, {@code null} if none.
+     */
+    public String undoCaption() {
+        return idx > 0 ? entry(prev(idx)).getCaption() : null;
+    }
+
+    /**
+     * Caption of the step redo would run, {@code null} if none.
+     */
+    public String redoCaption() {
+        return idx < size ? entry(idx).getCaption() : null;
+    }
+
+    /**
+     * Row of the last step of the type before {@code before}, {@code -1} if none.
+     * <p>For {@link #MOVE} the first row of the move is returned; {@code x} and {@code y} steps do not include moves.
+     */
+    public int lastIndexOf(byte t, int before) {
+        byte[] types = type;
+        for (int row = Math.min(before, size) - 1; row >= 0; --row) {
+            if (types[row] == t) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    public void pushColor(int res, int from, int to) {
+        int row = open(1);
+        type[row] = COLOR;
+        resId[row] = res;
+        oldRgba[row] = from;
+        newRgba[row] = to;
+        redo();
+    }
+
+    public void pushValue(int res, DoubleProp prop, double from, double to) {
+        byte t = (byte) (prop.ordinal() + 1);
+        if (idx > mergeFrom && idx != cleanIdx && type[idx - 1] == t) {
+            dropTail();
+            newV[idx - 1] = to;
+            ctx.value(prop).set(to);
+            return;
+        }
+        int row = open(1);
+        type[row] = t;
+        resId[row] = res;
+        oldV[row] = from;
+        newV[row] = to;
+        redo();
+    }
+
+    public void pushMove(int res, double fromX, double fromY, double toX, double toY) {
+        int row = open(2);
+        type[row] = MOVE;
+        resId[row] = res;
+        oldV[row] = fromX;
+        newV[row] = toX;
+        type[row + 1] = MOVE_Y;
+        resId[row + 1] = res;
+        oldV[row + 1] = fromY;
+        newV[row + 1] = toY;
+        redo();
+    }
+
+    /**
+     * Pushes a copy of one of the {@code UndoBulk} commands.
+     *
+     * @throws IllegalArgumentException for other commands.
+     */
+    public void push(UndoCommand cmd) {
+        cmd = unwrap(cmd);
+        if (cmd instanceof ColorUndo) {
+            ColorUndo c = (ColorUndo) cmd;
+            pushColor(c.getResId(), c.getOldRgba(), c.getNewRgba());
+        } else if (cmd instanceof DoublePropertyUndo) {
+            DoublePropertyUndo d = (DoublePropertyUndo) cmd;
+            pushValue(d.getResId(), d.getProp(), d.getOldV(), d.getNewV());
+        } else if (cmd instanceof MoveUndo) {
+            MoveUndo m = (MoveUndo) cmd;
+            pushMove(m.getResId(), m.getOldX(), m.getOldY(), m.getNewX(), m.getNewY());
+        } else {
+            throw new IllegalArgumentException("Unsupported command: " + cmd.getClass().getName());
+        }
+    }
+
+    public void undo() {
+        if (idx == 0) {
+            return;
+        }
+        int row = prev(idx);
+        apply(row, false);
+        idx = row;
+    }
+
+    public void redo() {
+        if (idx == size) {
+            return;
+        }
+        int row = idx;
+        apply(row, true);
+        idx = next(row);
+    }
+
+    private void apply(int row, boolean forward) {
+        switch (type[row]) {
+            case COLOR:
+                ctx.color().set(ColorCodec.fromRgba(forward ? newRgba[row] : oldRgba[row]));
+                break;
+            case MOVE:
+                ctx.value(DoubleProp.X).set(forward ? newV[row] : oldV[row]);
+                ctx.value(DoubleProp.Y).set(forward ? newV[row + 1] : oldV[row + 1]);
+                break;
+            default:
+                ctx.value(PROPS[type[row] - 1]).set(forward ? newV[row] : oldV[row]);
+        }
+    }
+
+    private int next(int row) {
+        return row < size && type[row] == MOVE ? row + 2 : row + 1;
+    }
+
+    private int prev(int row) {
+        return type[row - 1] == MOVE_Y ? row - 2 : row - 1;
+    }
+
+    /**
+     * Drops the redo tail and makes room for {@code rows} rows at the end.
+     *
+     * @return The first of them.
+     */
+    private int open(int rows) {
+        dropTail();
+        ensure(size + rows);
+        int row = size;
+        size += rows;
+        return row;
+    }
+
+    private void dropTail() {
+        if (cleanIdx > idx) {
+            // The clean state was in the dropped tail.
+            cleanIdx = -1;
+        }
+        mergeFrom = Math.min(mergeFrom, idx);
+        size = idx;
+    }
+
+    /**
+     * Appends a command's rows as they are, without running it.
+     */
+    private void append(UndoCommand cmd) {
+        int saved = idx;
+        idx = size;
+        cmd = unwrap(cmd);
+        int row;
+        if (cmd instanceof ColorUndo) {
+            ColorUndo c = (ColorUndo) cmd;
+            row = open(1);
+            type[row] = COLOR;
+            resId[row] = c.getResId();
+            oldRgba[row] = c.getOldRgba();
+            newRgba[row] = c.getNewRgba();
+        } else if (cmd instanceof DoublePropertyUndo) {
+            DoublePropertyUndo d = (DoublePropertyUndo) cmd;
+            row = open(1);
+            type[row] = (byte) (d.getProp().ordinal() + 1);
+            resId[row] = d.getResId();
+            oldV[row] = d.getOldV();
+            newV[row] = d.getNewV();
+        } else if (cmd instanceof MoveUndo) {
+            MoveUndo m = (MoveUndo) cmd;
+            row = open(2);
+            type[row] = MOVE;
+            resId[row] = m.getResId();
+            oldV[row] = m.getOldX();
+            newV[row] = m.getNewX();
+            type[row + 1] = MOVE_Y;
+            resId[row + 1] = m.getResId();
+            oldV[row + 1] = m.getOldY();
+            newV[row + 1] = m.getNewY();
+        } else {
+            throw new IllegalArgumentException("Unsupported command: " + cmd.getClass().getName());
+        }
+        idx = saved;
+    }
+
+    private static UndoCommand unwrap(UndoCommand cmd) {
+        while (cmd instanceof CommandProxy) {
+            cmd = ((CommandProxy) cmd).get();
+        }
+        return cmd;
+    }
+
+    private void ensure(int capacity) {
+        if (capacity <= type.length) {
+            return;
+        }
+        int n = Math.max(capacity, type.length + (type.length >> 1));
+        type = Arrays.copyOf(type, n);
+        resId = Arrays.copyOf(resId, n);
+        oldV = Arrays.copyOf(oldV, n);
+        newV = Arrays.copyOf(newV, n);
+        oldRgba = Arrays.copyOf(oldRgba, n);
+        newRgba = Arrays.copyOf(newRgba, n);
+    }
+
+}
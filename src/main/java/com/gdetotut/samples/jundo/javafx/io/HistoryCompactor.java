@@ -0,0 +1,153 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.MoveUndo;
+import com.gdetotut.samples.jundo.javafx.codec.CommandProxy;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Rewrites a stack into the fewest commands that reach the same states at the indexes that matter:
+ * the start, the clean mark, the current index and the end of the redo tail.
+ * <p>Between two such indexes only the net change of each property is kept: a chain of radius, x or y commands
+ * becomes one command even when a color change breaks it up, and properties that end where they started
+ * (no-op commands, A→B→A) disappear. Undo steps in between are given up, the states at those indexes are not.
+ * Two such indexes with the same state between them become one: a current state equal to the saved one is clean.
+ * <p>The result is a new stack; its local contexts are placeholders, register the real ones before use.
+ */
+public final class HistoryCompactor {
+
+    private static final DoubleProp[] PROPS = DoubleProp.values();
+
+    private HistoryCompactor() {
+    }
+
+    /**
+     * @param subj Subject of the new stack.
+     * @throws IllegalArgumentException if the stack holds a command other than the {@code UndoBulk} ones.
+     */
+    public static UndoStack compact(UndoStack stack, Object subj) {
+        int count = stack.count();
+        int idx = stack.getIdx();
+        int cleanIdx = stack.getCleanIdx();
+        TreeSet<Integer> anchors = new TreeSet<>();
+        anchors.add(idx);
+        anchors.add(count);
+        if (cleanIdx >= 0 && cleanIdx <= count) {
+            anchors.add(cleanIdx);
+        }
+
+        StackBuilder builder = new StackBuilder(subj);
+        Segment segment = new Segment();
+        int newIdx = 0;
+        int newCleanIdx = -1;
+        int from = 0;
+        for (int to : anchors) {
+            segment.reset();
+            for (int i = from; i < to; ++i) {
+                segment.add(stack.getCommand(i));
+            }
+            segment.emit(builder);
+            from = to;
+            int at = builder.getStack().count();
+            if (to == idx) {
+                newIdx = at;
+            }
+            if (to == cleanIdx) {
+                newCleanIdx = at;
+            }
+        }
+        return builder.finish(newIdx, newCleanIdx);
+    }
+
+    /**
+     * Net change of each property over a run of commands.
+     */
+    private static final class Segment {
+
+        boolean color;
+        int oldRgba;
+        int newRgba;
+        int colorRes;
+
+        final boolean[] touched = new boolean[PROPS.length];
+        final double[] oldV = new double[PROPS.length];
+        final double[] newV = new double[PROPS.length];
+        final int[] res = new int[PROPS.length];
+
+        /**
+         * Resource of the last move in the run, {@code -1} if none; x and y are then written as one move.
+         */
+        int moveRes;
+
+        void reset() {
+            color = false;
+            Arrays.fill(touched, false);
+            moveRes = -1;
+        }
+
+        void add(UndoCommand cmd) {
+            while (cmd instanceof CommandProxy) {
+                cmd = ((CommandProxy) cmd).get();
+            }
+            if (cmd instanceof ColorUndo) {
+                ColorUndo c = (ColorUndo) cmd;
+                if (!color) {
+                    color = true;
+                    oldRgba = c.getOldRgba();
+                }
+                newRgba = c.getNewRgba();
+                colorRes = c.getResId();
+            } else if (cmd instanceof DoublePropertyUndo) {
+                DoublePropertyUndo d = (DoublePropertyUndo) cmd;
+                touch(d.getProp().ordinal(), d.getOldV(), d.getNewV(), d.getResId());
+            } else if (cmd instanceof MoveUndo) {
+                MoveUndo m = (MoveUndo) cmd;
+                touch(DoubleProp.X.ordinal(), m.getOldX(), m.getNewX(), m.getResId());
+                touch(DoubleProp.Y.ordinal(), m.getOldY(), m.getNewY(), m.getResId());
+                moveRes = m.getResId();
+            } else {
+                throw new IllegalArgumentException("Unsupported command: " + cmd.getClass().getName());
+            }
+        }
+
+        private void touch(int p, double from, double to, int resId) {
+            if (!touched[p]) {
+                touched[p] = true;
+                oldV[p] = from;
+            }
+            newV[p] = to;
+            res[p] = resId;
+        }
+
+        private boolean changed(int p) {
+            return touched[p] && Double.compare(oldV[p], newV[p]) != 0;
+        }
+
+        void emit(StackBuilder builder) {
+            UndoStack owner = builder.getStack();
+            if (color && oldRgba != newRgba) {
+                builder.add(new ColorUndo(owner, null, colorRes, oldRgba, newRgba));
+            }
+            int x = DoubleProp.X.ordinal();
+            int y = DoubleProp.Y.ordinal();
+            boolean move = moveRes >= 0 && (changed(x) || changed(y));
+            for (DoubleProp prop : PROPS) {
+                int p = prop.ordinal();
+                if (changed(p) && !(move && (p == x || p == y))) {
+                    builder.add(new DoublePropertyUndo(owner, null, res[p], prop, oldV[p], newV[p]));
+                }
+            }
+            if (move) {
+                // A move touches both, so both are known.
+                builder.add(new MoveUndo(owner, null, moveRes, oldV[x], oldV[y], newV[x], newV[y]));
+            }
+        }
+    }
+
+}
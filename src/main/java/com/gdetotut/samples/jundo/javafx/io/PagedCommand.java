@@ -0,0 +1,101 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.codec.CommandProxy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Wraps a pushed command so that {@link PagedHistory} can move it to a {@link SpillStore} and drop it from the heap.
+ * <p>While resident it behaves exactly as the wrapped command, merges included. A spilled command is decoded from
+ * the store each time it is run and no longer merges, like a sealed one.
+ * <p>Spilling happens on the thread that drives the stack, while {@link #get} may also run on a saver thread.
+ * {@link #spilled} sets the store position first and clears the volatile {@link #target} last, so a thread that sees
+ * the command spilled also sees where it went.
+ * <p>While the stack is {@link ShapeContext#setDetached detached} undo and redo do nothing, so nothing is read.
+ */
+public final class PagedCommand extends UndoCommand implements CommandProxy {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient volatile UndoCommand target;
+
+    /**
+     * Published by the write of {@link #target} in {@link #spilled}.
+     */
+    private transient SpillStore store;
+    private int segment;
+    private int offset;
+
+    PagedCommand(UndoStack owner, UndoCommand target) {
+        super(owner, "", null);
+        this.target = target;
+    }
+
+    boolean isResident() {
+        return target != null;
+    }
+
+    void spilled(SpillStore store, int segment, int offset) {
+        this.store = store;
+        this.segment = segment;
+        this.offset = offset;
+        // Last: publishes the fields above.
+        this.target = null;
+    }
+
+    @Override
+    public UndoCommand get() {
+        UndoCommand cmd = target;
+        if (cmd != null) {
+            return cmd;
+        }
+        try {
+            return store.read(segment, offset, owner);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int id() {
+        UndoCommand cmd = target;
+        return cmd != null ? cmd.id() : -1;
+    }
+
+    @Override
+    public boolean mergeWith(UndoCommand cmd) {
+        UndoCommand t = target;
+        return t != null && cmd instanceof PagedCommand && t.mergeWith(((PagedCommand) cmd).get());
+    }
+
+    @Override
+    protected void doRedo() {
+        if (!ShapeContext.isDetached(owner)) {
+            get().redo();
+        }
+    }
+
+    @Override
+    protected void doUndo() {
+        if (!ShapeContext.isDetached(owner)) {
+            get().undo();
+        }
+    }
+
+    @Override
+    public String getCaption() {
+        return get().getCaption();
+    }
+
+    /**
+     * Serialized as the real command.
+     */
+    private Object writeReplace() {
+        return get();
+    }
+
+}
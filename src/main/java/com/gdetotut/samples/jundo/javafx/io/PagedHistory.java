@@ -0,0 +1,160 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.codec.LazyCommand;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps at most a given number of commands of a stack on the heap; older ones are spilled to a {@link SpillStore}.
+ * <p>Commands pushed through the driver are wrapped in {@link PagedCommand}. When more than {@code budget} of them
+ * are resident, the oldest {@code batch} resident ones are written to the store as one segment and released.
+ * Undoing that far reads them back from the store, segment by segment.
+ * <p>What stays on the heap for a spilled command is its small wrapper, so heap use grows by a few bytes per command
+ * instead of by the whole command.
+ * <p>Commands restored with {@link BinaryUndoFile#restoreLazy} count against the same budget once decoded: past it the
+ * oldest decoded ones are dropped back to their encoded form, with nothing to write, since the mapped file holds them.
+ * This is checked after every push and move, so a long jump holds its decoded commands until it ends. Other commands
+ * that did not come through the driver, eagerly restored or replayed ones, stay on the heap.
+ * <p>{@link #close} the history together with its stack: that closes the store and deletes its file.
+ */
+public class PagedHistory implements UndoDriver.Listener, Closeable {
+
+    /**
+     * Defaults of {@link #install}; overridden by system properties {@code jundo.budget}, {@code jundo.batch}
+     * and {@code jundo.cachedSegments}.
+     */
+    public static final int DEFAULT_BUDGET = 10_000;
+    public static final int DEFAULT_BATCH = 1_000;
+    public static final int DEFAULT_CACHED_SEGMENTS = 4;
+
+    private final UndoStack stack;
+
+    private final SpillStore store;
+
+    private final int budget;
+
+    private final int batch;
+
+    /**
+     * Source of the lazily restored commands, {@code null} if there are none.
+     */
+    private final LazyCommand.Source restored;
+
+    /**
+     * Commands below this index are spilled or not ours.
+     */
+    private int spilledTo;
+
+    /**
+     * @param budget How many pushed commands to keep on the heap.
+     * @param batch  How many of them to spill at once; not more than {@code budget}.
+     */
+    public PagedHistory(UndoDriver driver, SpillStore store, int budget, int batch) {
+        if (batch < 1 || batch > budget) {
+            throw new IllegalArgumentException("Batch must be within [1, budget]");
+        }
+        this.stack = driver.getStack();
+        this.store = store;
+        this.budget = budget;
+        this.batch = batch;
+        UndoCommand first = stack.getCommand(0);
+        this.restored = first instanceof LazyCommand ? ((LazyCommand) first).getSource() : null;
+        // Everything already in the stack is not ours.
+        this.spilledTo = stack.count();
+        driver.setWrapper(cmd -> new PagedCommand(stack, cmd));
+        driver.addListener(this);
+    }
+
+    /**
+     * Spills to a temporary file with the configured budget.
+     *
+     * @return {@code null} if the file can not be created; the history then stays on the heap.
+     */
+    public static PagedHistory install(UndoDriver driver) {
+        int budget = Integer.getInteger("jundo.budget", DEFAULT_BUDGET);
+        int batch = Math.min(Integer.getInteger("jundo.batch", DEFAULT_BATCH), budget);
+        try {
+            SpillStore store = new SpillStore(Integer.getInteger("jundo.cachedSegments", DEFAULT_CACHED_SEGMENTS));
+            return new PagedHistory(driver, store, budget, batch);
+        } catch (IOException e) {
+            System.err.println(e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void pushed(UndoCommand cmd) {
+        // A push after undo drops commands above the index, some of which may have been spilled.
+        spilledTo = Math.min(spilledTo, stack.count());
+        if (stack.count() - spilledTo > budget) {
+            spill();
+        }
+        releaseRestored();
+    }
+
+    @Override
+    public void moved(int idx) {
+        releaseRestored();
+    }
+
+    public int getSpilledTo() {
+        return spilledTo;
+    }
+
+    /**
+     * Closes the store; spilled commands can not be run any more. A failure is reported and otherwise ignored.
+     */
+    @Override
+    public void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Writes the oldest resident pushed commands to the store.
+     */
+    private void spill() {
+        List<PagedCommand> out = new ArrayList<>(batch);
+        int i = spilledTo;
+        // The top command may still merge, so it is never spilled.
+        for (; i < stack.count() - 1 && out.size() < batch; ++i) {
+            UndoCommand c = stack.getCommand(i);
+            if (c instanceof PagedCommand && ((PagedCommand) c).isResident()) {
+                out.add((PagedCommand) c);
+            }
+        }
+        spilledTo = i;
+        if (out.isEmpty()) {
+            return;
+        }
+        int[] offsets = new int[out.size()];
+        try {
+            int segment = store.write(out, offsets);
+            for (int k = 0; k < out.size(); ++k) {
+                out.get(k).spilled(store, segment, offsets[k]);
+            }
+        } catch (IOException e) {
+            // Commands stay on the heap; nothing is lost.
+            System.err.println(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Keeps as many decoded restored commands as the pushed ones leave of the budget.
+     */
+    private void releaseRestored() {
+        if (restored != null) {
+            restored.release(Math.max(0, budget - (stack.count() - spilledTo)));
+        }
+    }
+
+}
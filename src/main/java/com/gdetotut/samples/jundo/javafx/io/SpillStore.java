@@ -0,0 +1,128 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.codec.CommandCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session-local file of spilled commands, see {@link PagedHistory}.
+ * <p>Commands are appended in segments, one per spilled batch, in {@link CommandCodec} form. Reading a command loads
+ * its whole segment; the last few loaded segments are kept on the heap (LRU), so stepping through old history
+ * reads each segment once.
+ * <p>The file is deleted when the store is closed or the JVM exits. Segments of commands that were later dropped
+ * from the stack stay in the file until then. All methods are thread-safe.
+ */
+public final class SpillStore implements Closeable {
+
+    private final FileChannel file;
+
+    /**
+     * Start and length of each segment in the file.
+     */
+    private final List<long[]> segments = new ArrayList<>();
+
+    private final Map<Integer, ByteBuffer> cache;
+
+    private long end;
+
+    private long reads;
+
+    /**
+     * @param cachedSegments How many loaded segments to keep on the heap.
+     */
+    public SpillStore(int cachedSegments) throws IOException {
+        this(Files.createTempFile("undo-", ".spill"), cachedSegments);
+    }
+
+    public SpillStore(Path path, int cachedSegments) throws IOException {
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        path.toFile().deleteOnExit();
+        cache = new LinkedHashMap<Integer, ByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+                return size() > cachedSegments;
+            }
+        };
+    }
+
+    /**
+     * Appends the commands as one segment.
+     *
+     * @param offsets Receives the position of each command within the segment.
+     * @return Segment number.
+     */
+    public synchronized int write(List<? extends UndoCommand> commands, int[] offsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(commands.size() * 24);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < commands.size(); ++i) {
+            offsets[i] = out.size();
+            CommandCodec.write(out, commands.get(i));
+        }
+        ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+        long start = end;
+        while (data.hasRemaining()) {
+            end += file.write(data, end);
+        }
+        segments.add(new long[]{start, end - start});
+        return segments.size() - 1;
+    }
+
+    /**
+     * Decodes one command; a new object every time.
+     */
+    public UndoCommand read(int segment, int offset, UndoStack owner) throws IOException {
+        synchronized (this) {
+            ++reads;
+        }
+        ByteBuffer in = load(segment).duplicate();
+        in.position(offset);
+        return CommandCodec.read(in, owner);
+    }
+
+    private synchronized ByteBuffer load(int segment) throws IOException {
+        ByteBuffer data = cache.get(segment);
+        if (data == null) {
+            long[] seg = segments.get(segment);
+            data = ByteBuffer.allocate((int) seg[1]);
+            while (data.hasRemaining()) {
+                if (file.read(data, seg[0] + data.position()) < 0) {
+                    throw new IOException("Spill file is truncated");
+                }
+            }
+            cache.put(segment, data);
+        }
+        return data;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Commands decoded by {@link #read} so far.
+     */
+    public synchronized long getReadCount() {
+        return reads;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+}
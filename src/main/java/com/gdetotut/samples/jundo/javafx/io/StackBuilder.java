@@ -0,0 +1,55 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+
+/**
+ * Builds an {@link UndoStack} out of decoded commands.
+ * <p>The stack has no way to take commands without running them, so they are pushed one by one with a scratch
+ * {@link ShapeState} as local contexts: nothing but plain fields is touched. Pushed commands are sealed so that
+ * neighbours of the same property do not merge. The caller registers the real contexts afterwards.
+ */
+final class StackBuilder {
+
+    private final UndoStack stack;
+
+    StackBuilder(Object subj) {
+        stack = new UndoStack(subj, null);
+        new ShapeState().register(stack, null);
+    }
+
+    UndoStack getStack() {
+        return stack;
+    }
+
+    void add(UndoCommand cmd) {
+        if (cmd instanceof BaseTab.UndoBulk.DoublePropertyUndo) {
+            ((BaseTab.UndoBulk.DoublePropertyUndo) cmd).seal();
+        }
+        stack.push(cmd);
+    }
+
+    /**
+     * Places the clean mark and the current index; both are within {@code [0, count]} or the clean mark is dropped.
+     */
+    UndoStack finish(int idx, int cleanIdx) {
+        if (cleanIdx >= 0 && cleanIdx <= stack.count()) {
+            moveTo(cleanIdx);
+            stack.setClean();
+        }
+        moveTo(idx);
+        return stack;
+    }
+
+    private void moveTo(int idx) {
+        while (stack.getIdx() > idx && stack.canUndo()) {
+            stack.undo();
+        }
+        while (stack.getIdx() < idx && stack.canRedo()) {
+            stack.redo();
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.codec.CommandCodec;
+import com.gdetotut.samples.jundo.javafx.codec.CompactCodec;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of a stack that can be encoded on another thread while the stack keeps changing.
+ * <p>{@link #take} only copies command references and a few ints, so it is cheap enough for the FX thread.
+ * Commands themselves are not immutable: a push may merge into the command at {@code idx - 1}.
+ * So while the snapshot is not yet encoded, it watches the driver and stores an encoded copy of that command
+ * before the merge may change it (copy-on-write). {@link #encode} then uses the copy instead of the live command.
+ */
+public final class StackSnapshot implements UndoDriver.Listener, UndoJournal.Encoder {
+
+    /**
+     * Commands encoded under one lock acquisition; bounds how long a push may wait for the encoder.
+     */
+    private static final int BLOCK = CompactCodec.BLOCK;
+
+    private final UndoDriver driver;
+    private final UndoCommand[] commands;
+    private final int idx;
+    private final int cleanIdx;
+    private final ShapeState subj;
+    private final String id;
+    private final int version;
+
+    private final Object lock = new Object();
+
+    /**
+     * Copies of commands made before they were merged into, by index. Guarded by {@link #lock}.
+     */
+    private final Map<Integer, UndoCommand> copies = new HashMap<>();
+
+    private volatile boolean done;
+
+    private StackSnapshot(UndoDriver driver, ShapeState subj, String id, int version) {
+        UndoStack stack = driver.getStack();
+        this.driver = driver;
+        this.commands = new UndoCommand[stack.count()];
+        for (int i = 0; i < commands.length; ++i) {
+            commands[i] = stack.getCommand(i);
+        }
+        this.idx = stack.getIdx();
+        this.cleanIdx = stack.getCleanIdx();
+        this.subj = subj;
+        this.id = id;
+        this.version = version;
+    }
+
+    /**
+     * Must be called on the thread that drives the stack.
+     *
+     * @param subj State of the subject at this moment; must not change afterwards.
+     */
+    public static StackSnapshot take(UndoDriver driver, ShapeState subj, String id, int version) {
+        StackSnapshot snapshot = new StackSnapshot(driver, subj, id, version);
+        driver.addListener(snapshot);
+        return snapshot;
+    }
+
+    @Override
+    public void beforePush(UndoCommand cmd) {
+        if (done) {
+            driver.removeListener(this);
+            return;
+        }
+        int k = driver.getStack().getIdx() - 1;
+        if (k < 0 || k >= commands.length || commands[k] != driver.getStack().getCommand(k)) {
+            return;
+        }
+        synchronized (lock) {
+            if (!copies.containsKey(k)) {
+                copies.put(k, copyOf(commands[k]));
+            }
+        }
+    }
+
+    /**
+     * Encodes the snapshot in {@link BinaryUndoFile} form. May be called on any thread, once.
+     */
+    @Override
+    public byte[] encode() throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + commands.length * 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            BinaryUndoFile.writeHeader(out, id, version, subj, commands.length, idx, cleanIdx);
+            CompactCodec.BlockWriter writer = new CompactCodec.BlockWriter(out);
+            for (int from = 0; from < commands.length; from += BLOCK) {
+                int to = Math.min(from + BLOCK, commands.length);
+                synchronized (lock) {
+                    for (int i = from; i < to; ++i) {
+                        UndoCommand copy = copies.isEmpty() ? null : copies.get(i);
+                        writer.write(copy != null ? copy : commands[i]);
+                    }
+                }
+            }
+            writer.flush();
+            out.flush();
+            return bytes.toByteArray();
+        } finally {
+            done = true;
+        }
+    }
+
+    /**
+     * Detached copy of the command, made by a round trip through {@link CommandCodec}.
+     */
+    private UndoCommand copyOf(UndoCommand cmd) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            CommandCodec.write(new DataOutputStream(bytes), cmd);
+            return CommandCodec.read(ByteBuffer.wrap(bytes.toByteArray()), driver.getStack());
+        } catch (IOException e) {
+            // In-memory stream.
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
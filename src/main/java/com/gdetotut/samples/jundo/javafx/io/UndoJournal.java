@@ -0,0 +1,373 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.codec.CommandCodec;
+import com.gdetotut.samples.jundo.javafx.codec.CommandProxy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of stack operations on top of a full snapshot.
+ * <p>Operations done through {@link UndoDriver} since the last {@link #flush} are kept in memory and appended to the journal
+ * file on flush, so saving costs as much as the edits made since the previous save, not as much as the whole history.
+ * Once the journal grows past {@link #getCompactThreshold} operations, {@link #flush} writes a new full snapshot instead
+ * and starts an empty journal.
+ * <p>What is journaled are operations, not resulting stack contents: every push, index move and clean mark is replayed
+ * through the same stack calls. A push is journaled together with its outcome, appended or merged into the command
+ * below it, and replayed with the same outcome: restored commands are sealed or not decoded yet, so the stack alone
+ * would not merge into them as it did before the save.
+ * <p>The journal header holds the length and the CRC-32 of the snapshot it continues. A journal left over from an older
+ * snapshot, e.g. after a crash between writing the snapshot and starting its journal, does not match it and is ignored
+ * by {@link #replay}, even if the lengths happen to be equal.
+ */
+public class UndoJournal implements UndoDriver.Listener {
+
+    /**
+     * Produces full snapshots, e.g. {@link StackSnapshot}.
+     */
+    public interface Snapshotter {
+
+        /**
+         * Called on the thread that drives the stack, so it must be cheap; the heavy part goes to {@link Encoder#encode}.
+         */
+        Encoder capture() throws Exception;
+    }
+
+    /**
+     * Turns a captured snapshot into file contents. May run on any thread.
+     */
+    public interface Encoder {
+        byte[] encode() throws Exception;
+    }
+
+    /**
+     * File work prepared by {@link #prepare}. May run on any thread; writes must run in the order they were prepared.
+     */
+    public interface Write {
+
+        /**
+         * @return Bytes written.
+         */
+        long run() throws Exception;
+    }
+
+    private static final int MAGIC = 0x554A4E4C; // "UJNL"
+    private static final byte FORMAT = 2;
+
+    /**
+     * Magic, format, length and checksum of the snapshot.
+     */
+    private static final int HEADER = 4 + 1 + 8 + 4;
+
+    static final byte OP_MOVE = 2;
+    static final byte OP_CLEAN = 3;
+    static final byte OP_APPEND = 4;
+    static final byte OP_MERGE = 5;
+
+    private static final int DEFAULT_COMPACT_THRESHOLD = 4096;
+
+    /**
+     * Pending push that was merged into the command below it.
+     */
+    private static final class Merge {
+        final UndoCommand cmd;
+
+        Merge(UndoCommand cmd) {
+            this.cmd = cmd;
+        }
+    }
+
+    private final UndoStack stack;
+
+    private final Path snapshotFile;
+
+    private final Path journalFile;
+
+    private final Snapshotter snapshotter;
+
+    /**
+     * Operations not yet written: {@link UndoCommand} for append, {@link Merge} for merge, {@link Integer} for index move,
+     * {@code null} for clean.
+     */
+    private final List<Object> pending = new ArrayList<>();
+
+    private int journaled;
+
+    /**
+     * Index before the push in progress.
+     */
+    private int pushIdx;
+
+    private boolean baseWritten;
+
+    private int compactThreshold = DEFAULT_COMPACT_THRESHOLD;
+
+    /**
+     * Journals the operations done through {@code driver} from now on.
+     */
+    public UndoJournal(UndoDriver driver, Path snapshotFile, Path journalFile, Snapshotter snapshotter) {
+        this.stack = driver.getStack();
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.snapshotter = snapshotter;
+        driver.addListener(this);
+    }
+
+    public int getCompactThreshold() {
+        return compactThreshold;
+    }
+
+    public void setCompactThreshold(int compactThreshold) {
+        this.compactThreshold = compactThreshold;
+    }
+
+    @Override
+    public void beforePush(UndoCommand cmd) {
+        pushIdx = stack.getIdx();
+    }
+
+    @Override
+    public void pushed(UndoCommand cmd) {
+        // A merge leaves the index where it was.
+        pending.add(stack.getIdx() == pushIdx ? new Merge(cmd) : cmd);
+    }
+
+    @Override
+    public void moved(int idx) {
+        pending.add(idx);
+    }
+
+    @Override
+    public void cleaned() {
+        pending.add(null);
+    }
+
+    /**
+     * Appends pending operations, or writes a full snapshot if there is no valid base yet or the journal is too long.
+     */
+    public void flush() throws Exception {
+        Write write = prepare();
+        if (write != null) {
+            write.run();
+        }
+    }
+
+    /**
+     * Takes what has to be saved and returns the file work for it, so that it can run off the calling thread.
+     * <p>Must be called on the thread that drives the stack. Pending operations are encoded right here: their cost is
+     * that of the edits since the previous save. A full snapshot is only captured here and encoded by the returned write.
+     *
+     * @return {@code null} if there is nothing to save.
+     */
+    public Write prepare() throws Exception {
+        if (!baseWritten || journaled + pending.size() > compactThreshold) {
+            Encoder encoder = snapshotter.capture();
+            pending.clear();
+            journaled = 0;
+            baseWritten = true;
+            return () -> {
+                byte[] snapshot = encoder.encode();
+                writeSnapshot(snapshot);
+                return snapshot.length;
+            };
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pending.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Object op : pending) {
+            writeOp(out, op);
+        }
+        out.flush();
+        journaled += pending.size();
+        pending.clear();
+        byte[] data = bytes.toByteArray();
+        return () -> {
+            Files.write(journalFile, data, StandardOpenOption.APPEND);
+            return data.length;
+        };
+    }
+
+    /**
+     * Forgets that the files are up to date, e.g. after a failed write; the next save stores a full snapshot.
+     */
+    public void invalidate() {
+        baseWritten = false;
+    }
+
+    /**
+     * Writes a full snapshot and starts an empty journal for it.
+     */
+    private void writeSnapshot(byte[] snapshot) throws IOException {
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        Files.write(tmp, snapshot);
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // A crash before this line leaves the old journal, whose header no longer matches the snapshot.
+        reset(journalFile, snapshot);
+    }
+
+    /**
+     * Writes an empty journal that continues {@code snapshot}, e.g. after a tool has rewritten the snapshot file
+     * with the old journal folded in.
+     */
+    public static void reset(Path journalFile, byte[] snapshot) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(snapshot);
+        writeJournal(journalFile, snapshot.length, (int) crc.getValue(), new byte[0]);
+    }
+
+    /**
+     * Whether the journal continues the snapshot file as it is now.
+     */
+    public static boolean continues(Path snapshotFile, Path journalFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            return matches(in, snapshotFile);
+        } catch (NoSuchFileException | EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Makes a journal that {@link #continues} the previous contents of {@code snapshotFile} continue its new ones,
+     * e.g. after a tool has rewritten the snapshot with the same commands under another subject version.
+     * The operations are kept as they are.
+     */
+    public static void rebase(Path journalFile, Path snapshotFile) throws IOException {
+        byte[] journal = Files.readAllBytes(journalFile);
+        byte[] ops = new byte[journal.length - HEADER];
+        System.arraycopy(journal, HEADER, ops, 0, ops.length);
+        Path tmp = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        writeJournal(tmp, Files.size(snapshotFile), checksum(snapshotFile), ops);
+        Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeJournal(Path journalFile, long length, int crc, byte[] ops) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT);
+            out.writeLong(length);
+            out.writeInt(crc);
+            out.write(ops);
+        }
+    }
+
+    /**
+     * Reads the journal header and checks it against the snapshot; the checksum is only computed if the lengths match.
+     */
+    private static boolean matches(DataInputStream in, Path snapshotFile) throws IOException {
+        if (in.readInt() != MAGIC || in.readByte() != FORMAT) {
+            return false;
+        }
+        if (in.readLong() != Files.size(snapshotFile)) {
+            return false;
+        }
+        return in.readInt() == checksum(snapshotFile);
+    }
+
+    /**
+     * CRC-32 of the file, read through a mapping: one sequential pass, nothing copied onto the heap.
+     */
+    private static int checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            crc.update(buf);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Applies the journal that continues {@code snapshotFile} to a stack restored from that snapshot.
+     *
+     * @return Number of replayed operations; 0 if there is no journal or it belongs to another snapshot.
+     */
+    public static int replay(Path snapshotFile, Path journalFile, UndoDriver driver) throws IOException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            if (!matches(in, snapshotFile)) {
+                return 0;
+            }
+            UndoStack stack = driver.getStack();
+            int op;
+            while ((op = in.read()) != -1) {
+                switch (op) {
+                    case OP_APPEND:
+                        setMergeable(stack, false);
+                        driver.push(CommandCodec.read(in, stack));
+                        break;
+                    case OP_MERGE:
+                        setMergeable(stack, true);
+                        driver.push(CommandCodec.read(in, stack));
+                        break;
+                    case OP_MOVE:
+                        driver.setIndex(in.readInt());
+                        break;
+                    case OP_CLEAN:
+                        driver.setClean();
+                        break;
+                    default:
+                        throw new IOException("Corrupted journal " + journalFile + ": op " + op);
+                }
+                ++count;
+            }
+        } catch (NoSuchFileException | EOFException e) {
+            // No journal, or the last record was cut off by a crash: everything before it is applied.
+        }
+        return count;
+    }
+
+    /**
+     * Seals or unseals the command a push would merge into.
+     * <p>A command that does not merge by itself, e.g. a {@link com.gdetotut.samples.jundo.javafx.codec.LazyCommand}
+     * not decoded yet, is left alone when sealing and decoded when unsealing.
+     */
+    private static void setMergeable(UndoStack stack, boolean mergeable) {
+        if (stack.getIdx() == 0) {
+            return;
+        }
+        UndoCommand top = stack.getCommand(stack.getIdx() - 1);
+        if (!mergeable && top.id() == -1) {
+            return;
+        }
+        while (top instanceof CommandProxy) {
+            top = ((CommandProxy) top).get();
+        }
+        if (top instanceof DoublePropertyUndo) {
+            if (mergeable) {
+                ((DoublePropertyUndo) top).unseal();
+            } else {
+                ((DoublePropertyUndo) top).seal();
+            }
+        }
+    }
+
+    private static void writeOp(DataOutputStream out, Object op) throws IOException {
+        if (op instanceof UndoCommand) {
+            out.writeByte(OP_APPEND);
+            CommandCodec.write(out, (UndoCommand) op);
+        } else if (op instanceof Merge) {
+            out.writeByte(OP_MERGE);
+            CommandCodec.write(out, ((Merge) op).cmd);
+        } else if (op instanceof Integer) {
+            out.writeByte(OP_MOVE);
+            out.writeInt((Integer) op);
+        } else {
+            out.writeByte(OP_CLEAN);
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.gdetotut.samples.jundo.javafx.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Event log that costs the logging thread a few field writes.
+ * <p>Events are typed records kept in a ring of preallocated slots; nothing is formatted or allocated when logging.
+ * A background thread drains the ring, formats the events and writes them to a file, which is rotated when it gets
+ * too big. When the ring is full, either the new event or the oldest unwritten one is dropped, see {@link Overflow}.
+ * <p>Events must be logged from one thread at a time, the FX thread in this application. The writer is a daemon
+ * thread that flushes whenever the ring is empty, so only the events of the last moment may be lost at exit.
+ */
+public class EventLog {
+
+    public enum Overflow {
+        /**
+         * Keep what is in the ring, drop the event being logged.
+         */
+        DROP_NEWEST,
+        /**
+         * Make room by dropping the oldest event not yet written.
+         */
+        DROP_OLDEST
+    }
+
+    private static final class Slot {
+        long time;
+        String source;
+        EventType type;
+        int value;
+        String text;
+    }
+
+    private static volatile EventLog shared;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final Overflow overflow;
+
+    /**
+     * Next slot to log into; written by the logging thread only.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Next slot to write out. Moved by the writer, or by the logging thread when it drops the oldest event.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    private Writer out;
+    private long fileBytes;
+
+    /**
+     * @param capacity     Ring size; rounded up to a power of two.
+     * @param maxFileBytes The file is rotated once it is bigger.
+     * @param maxFiles     How many files to keep, the current one included: {@code file}, {@code file.1}...
+     */
+    public EventLog(Path file, int capacity, Overflow overflow, long maxFileBytes, int maxFiles) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Slot[size];
+        for (int i = 0; i < size; ++i) {
+            ring[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.overflow = overflow;
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        Thread writer = new Thread(this::drain, "undo-event-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Log shared by the application, configured by system properties: {@code jundo.log.file} ({@code ./undo-events.log}),
+     * {@code jundo.log.capacity} (8192 events), {@code jundo.log.overflow} ({@code DROP_OLDEST}),
+     * {@code jundo.log.maxBytes} (1 MB) and {@code jundo.log.maxFiles} (3).
+     */
+    public static EventLog shared() {
+        EventLog log = shared;
+        if (log == null) {
+            synchronized (EventLog.class) {
+                log = shared;
+                if (log == null) {
+                    log = new EventLog(
+                            Paths.get(System.getProperty("jundo.log.file", "./undo-events.log")),
+                            Integer.getInteger("jundo.log.capacity", 8192),
+                            Overflow.valueOf(System.getProperty("jundo.log.overflow", Overflow.DROP_OLDEST.name())),
+                            Long.getLong("jundo.log.maxBytes", 1 << 20),
+                            Integer.getInteger("jundo.log.maxFiles", 3));
+                    shared = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * @param source Constant naming who logs, e.g. the tab.
+     * @param text   An existing string, such as a caption; {@code null} if the type has none.
+     */
+    public void log(String source, EventType type, int value, String text) {
+        long h = head.get();
+        long t = tail.get();
+        while (h - t >= ring.length) {
+            if (overflow == Overflow.DROP_NEWEST) {
+                dropped.increment();
+                return;
+            }
+            // The writer may be reading that slot; it will notice the moved tail and discard what it read.
+            if (tail.compareAndSet(t, t + 1)) {
+                dropped.increment();
+            }
+            t = tail.get();
+        }
+        Slot slot = ring[(int) h & mask];
+        slot.time = System.currentTimeMillis();
+        slot.source = source;
+        slot.type = type;
+        slot.value = value;
+        slot.text = text;
+        head.lazySet(h + 1);
+    }
+
+    public void log(String source, EventType type, boolean value) {
+        log(source, type, value ? 1 : 0, null);
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void drain() {
+        StringBuilder line = new StringBuilder(128);
+        while (true) {
+            long t = tail.get();
+            if (t == head.get()) {
+                flush();
+                LockSupport.parkNanos(10_000_000L);
+                continue;
+            }
+            Slot slot = ring[(int) t & mask];
+            long time = slot.time;
+            String source = slot.source;
+            EventType type = slot.type;
+            int value = slot.value;
+            String text = slot.text;
+            if (!tail.compareAndSet(t, t + 1)) {
+                // Dropped by the logging thread meanwhile; what was read may be half overwritten.
+                continue;
+            }
+            line.setLength(0);
+            line.append(Instant.ofEpochMilli(time)).append(' ').append(source).append(' ').append(type);
+            if (text != null) {
+                line.append(" \"").append(text).append('"');
+            } else {
+                line.append(' ').append(value);
+            }
+            line.append('\n');
+            write(line);
+        }
+    }
+
+    private void write(CharSequence line) {
+        try {
+            if (out == null || fileBytes > maxFileBytes) {
+                open();
+            }
+            out.append(line);
+            fileBytes += line.length();
+        } catch (IOException e) {
+            // Losing log lines is better than losing the writer thread.
+            out = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            for (int i = maxFiles - 1; i > 0; --i) {
+                Path from = i == 1 ? file : rotated(i - 1);
+                if (Files.exists(from)) {
+                    Files.move(from, rotated(i), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (maxFiles == 1) {
+                Files.deleteIfExists(file);
+            }
+        }
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileBytes = Files.size(file);
+    }
+
+    private Path rotated(int i) {
+        return file.resolveSibling(file.getFileName() + "." + i);
+    }
+
+    private void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                out = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.gdetotut.samples.jundo.javafx.log;
+
+/**
+ * Kinds of {@link EventLog} events: the callbacks of {@link com.gdetotut.jundo.UndoWatcher}.
+ */
+public enum EventType {
+
+    /**
+     * Value is the new index.
+     */
+    INDEX_CHANGED,
+
+    /**
+     * Value is 1 if clean.
+     */
+    CLEAN_CHANGED,
+
+    /**
+     * Value is 1 if undo is possible.
+     */
+    CAN_UNDO_CHANGED,
+
+    /**
+     * Value is 1 if redo is possible.
+     */
+    CAN_REDO_CHANGED,
+
+    /**
+     * Text is the new undo caption.
+     */
+    UNDO_TEXT_CHANGED,
+
+    /**
+     * Text is the new redo caption.
+     */
+    REDO_TEXT_CHANGED
+
+}
@@ -0,0 +1,56 @@
+package com.gdetotut.samples.jundo.javafx.metrics;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.codec.CommandCodec;
+
+/**
+ * {@link UndoDriver} that times its operations into {@link UndoMetrics}. Times include the listeners and the watcher.
+ */
+public class MeteredDriver extends UndoDriver {
+
+    private final UndoMetrics metrics;
+
+    public MeteredDriver(UndoStack stack, UndoMetrics metrics) {
+        super(stack);
+        this.metrics = metrics;
+    }
+
+    public UndoMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void push(UndoCommand cmd) {
+        UndoStack stack = getStack();
+        int idx = stack.getIdx();
+        long start = System.nanoTime();
+        super.push(cmd);
+        long nanos = System.nanoTime() - start;
+        // An appended command moves the index; a merged one does not.
+        metrics.recordPush(cmd.getClass(), nanos, stack.getIdx() == idx, CommandCodec.sizeOf(cmd));
+    }
+
+    @Override
+    public void undo() {
+        long start = System.nanoTime();
+        super.undo();
+        metrics.recordUndo(System.nanoTime() - start);
+    }
+
+    @Override
+    public void redo() {
+        long start = System.nanoTime();
+        super.redo();
+        metrics.recordRedo(System.nanoTime() - start);
+    }
+
+    @Override
+    public void setIndex(int idx) {
+        long start = System.nanoTime();
+        super.setIndex(idx);
+        metrics.recordJump(System.nanoTime() - start);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.gdetotut.samples.jundo.javafx.metrics;
+
+import com.gdetotut.jundo.UndoWatcher;
+
+/**
+ * Decorates the stack's watcher and times it into {@link UndoMetrics}; the watcher is where the UI gets refreshed.
+ */
+public class MeteredWatcher implements UndoWatcher {
+
+    private final UndoWatcher watcher;
+
+    private final UndoMetrics metrics;
+
+    public MeteredWatcher(UndoWatcher watcher, UndoMetrics metrics) {
+        this.watcher = watcher;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void indexChanged(int idx) {
+        long start = System.nanoTime();
+        watcher.indexChanged(idx);
+        metrics.recordWatcher(System.nanoTime() - start);
+    }
+
+    @Override
+    public void cleanChanged(boolean clean) {
+        long start = System.nanoTime();
+        watcher.cleanChanged(clean);
+        metrics.recordWatcher(System.nanoTime() - start);
+    }
+
+    @Override
+    public void canUndoChanged(boolean canUndo) {
+        long start = System.nanoTime();
+        watcher.canUndoChanged(canUndo);
+        metrics.recordWatcher(System.nanoTime() - start);
+    }
+
+    @Override
+    public void canRedoChanged(boolean canRedo) {
+        long start = System.nanoTime();
+        watcher.canRedoChanged(canRedo);
+        metrics.recordWatcher(System.nanoTime() - start);
+    }
+
+    @Override
+    public void undoTextChanged(String undoText) {
+        long start = System.nanoTime();
+        watcher.undoTextChanged(undoText);
+        metrics.recordWatcher(System.nanoTime() - start);
+    }
+
+    @Override
+    public void redoTextChanged(String redoText) {
+        long start = System.nanoTime();
+        watcher.redoTextChanged(redoText);
+        metrics.recordWatcher(System.nanoTime() - start);
+    }
+
+}
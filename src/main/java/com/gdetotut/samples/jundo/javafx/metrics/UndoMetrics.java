@@ -0,0 +1,251 @@
+package com.gdetotut.samples.jundo.javafx.metrics;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one stack, filled by {@link MeteredDriver}, {@link MeteredWatcher}
+ * and the save and restore code, and exposed through JMX.
+ * <p>Recording allocates nothing once a command class has been seen, so it may stay on in production.
+ */
+public class UndoMetrics implements UndoMetricsMBean {
+
+    /**
+     * Numbers the registered instances, so that a recreated tab does not clash with the one it replaces.
+     */
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final Histogram push = new Histogram();
+    private final Histogram undo = new Histogram();
+    private final Histogram redo = new Histogram();
+    private final Histogram jump = new Histogram();
+    private final Histogram watcher = new Histogram();
+    private final Histogram save = new Histogram();
+    private final Histogram packets = new Histogram();
+
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder encodedCommands = new LongAdder();
+
+    private final AtomicLong lastPacket = new AtomicLong();
+    private final AtomicLong lastRestore = new AtomicLong();
+
+    private final Map<Class<?>, LongAdder> types = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    /**
+     * Registers under {@code com.gdetotut.samples.jundo:type=UndoMetrics,name=<name>,id=<n>}, {@code n} unique
+     * per instance. A failure is reported and otherwise ignored: metrics are not worth failing the application for.
+     */
+    public UndoMetrics register(String name) {
+        try {
+            ObjectName on = new ObjectName("com.gdetotut.samples.jundo:type=UndoMetrics,name="
+                    + ObjectName.quote(name) + ",id=" + INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            objectName = on;
+        } catch (Exception e) {
+            System.err.println(e.getLocalizedMessage());
+        }
+        return this;
+    }
+
+    /**
+     * Removes the MBean, e.g. when its tab is closed. Does nothing if it is not registered.
+     */
+    public void unregister() {
+        ObjectName on = objectName;
+        if (on == null) {
+            return;
+        }
+        objectName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+        } catch (Exception e) {
+            System.err.println(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @param encodedSize Size of the command in binary form; negative if unknown.
+     */
+    public void recordPush(Class<?> type, long nanos, boolean merged, int encodedSize) {
+        push.record(nanos);
+        if (merged) {
+            merges.increment();
+        } else {
+            types.computeIfAbsent(type, t -> new LongAdder()).increment();
+        }
+        if (encodedSize >= 0) {
+            encodedBytes.add(encodedSize);
+            encodedCommands.increment();
+        }
+    }
+
+    public void recordUndo(long nanos) {
+        undo.record(nanos);
+    }
+
+    public void recordRedo(long nanos) {
+        redo.record(nanos);
+    }
+
+    public void recordJump(long nanos) {
+        jump.record(nanos);
+    }
+
+    public void recordWatcher(long nanos) {
+        watcher.record(nanos);
+    }
+
+    /**
+     * @param bytes Bytes written: a journal append or a full snapshot.
+     */
+    public void recordSave(long nanos, long bytes) {
+        save.record(nanos);
+        packets.record(bytes);
+        lastPacket.set(bytes);
+    }
+
+    public void recordRestore(long nanos) {
+        lastRestore.set(nanos);
+    }
+
+    @Override
+    public long getPushCount() {
+        return push.getCount();
+    }
+
+    @Override
+    public long getUndoCount() {
+        return undo.getCount();
+    }
+
+    @Override
+    public long getRedoCount() {
+        return redo.getCount();
+    }
+
+    @Override
+    public long getJumpCount() {
+        return jump.getCount();
+    }
+
+    @Override
+    public double getMergeRatio() {
+        long n = push.getCount();
+        return n == 0 ? 0 : (double) merges.sum() / n;
+    }
+
+    @Override
+    public double getPushMeanMicros() {
+        return push.getMean() / 1000;
+    }
+
+    @Override
+    public long getPushP99Micros() {
+        return micros(push.getPercentile(0.99));
+    }
+
+    @Override
+    public long getPushMaxMicros() {
+        return micros(push.getMax());
+    }
+
+    @Override
+    public long getUndoP99Micros() {
+        return micros(undo.getPercentile(0.99));
+    }
+
+    @Override
+    public long getRedoP99Micros() {
+        return micros(redo.getPercentile(0.99));
+    }
+
+    @Override
+    public long getJumpP99Micros() {
+        return micros(jump.getPercentile(0.99));
+    }
+
+    @Override
+    public long getWatcherP99Micros() {
+        return micros(watcher.getPercentile(0.99));
+    }
+
+    @Override
+    public long getSaveCount() {
+        return save.getCount();
+    }
+
+    @Override
+    public long getSaveP99Micros() {
+        return micros(save.getPercentile(0.99));
+    }
+
+    @Override
+    public long getSaveMaxMicros() {
+        return micros(save.getMax());
+    }
+
+    @Override
+    public long getLastRestoreMicros() {
+        return micros(lastRestore.get());
+    }
+
+    @Override
+    public double getBytesPerCommand() {
+        long n = encodedCommands.sum();
+        return n == 0 ? 0 : (double) encodedBytes.sum() / n;
+    }
+
+    @Override
+    public long getLastPacketBytes() {
+        return lastPacket.get();
+    }
+
+    @Override
+    public long getMaxPacketBytes() {
+        return packets.getMax();
+    }
+
+    @Override
+    public String getCommandCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        types.forEach((type, n) -> counts.put(type.getSimpleName(), n.sum()));
+        return counts.toString();
+    }
+
+    @Override
+    public String getLatencySummary() {
+        StringBuilder sb = new StringBuilder();
+        summary(sb, "push", push);
+        summary(sb, "undo", undo);
+        summary(sb, "redo", redo);
+        summary(sb, "jump", jump);
+        summary(sb, "watcher", watcher);
+        summary(sb, "save", save);
+        return sb.toString();
+    }
+
+    private static void summary(StringBuilder sb, String name, Histogram h) {
+        if (sb.length() > 0) {
+            sb.append("; ");
+        }
+        sb.append(name).append(": n=").append(h.getCount())
+                .append(" mean=").append(Math.round(h.getMean() / 1000)).append("us")
+                .append(" p50=").append(micros(h.getPercentile(0.5))).append("us")
+                .append(" p99=").append(micros(h.getPercentile(0.99))).append("us")
+                .append(" max=").append(micros(h.getMax())).append("us");
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+}
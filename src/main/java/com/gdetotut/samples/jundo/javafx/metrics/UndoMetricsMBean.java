@@ -0,0 +1,65 @@
+package com.gdetotut.samples.jundo.javafx.metrics;
+
+/**
+ * JMX view of {@link UndoMetrics}. Latencies are in microseconds.
+ */
+public interface UndoMetricsMBean {
+
+    long getPushCount();
+
+    long getUndoCount();
+
+    long getRedoCount();
+
+    long getJumpCount();
+
+    /**
+     * Share of pushes merged into the previous command.
+     */
+    double getMergeRatio();
+
+    double getPushMeanMicros();
+
+    long getPushP99Micros();
+
+    long getPushMaxMicros();
+
+    long getUndoP99Micros();
+
+    long getRedoP99Micros();
+
+    long getJumpP99Micros();
+
+    /**
+     * Time spent in the stack's watcher, i.e. refreshing the UI.
+     */
+    long getWatcherP99Micros();
+
+    long getSaveCount();
+
+    long getSaveP99Micros();
+
+    long getSaveMaxMicros();
+
+    long getLastRestoreMicros();
+
+    /**
+     * Average size of a pushed command in its binary form.
+     */
+    double getBytesPerCommand();
+
+    long getLastPacketBytes();
+
+    long getMaxPacketBytes();
+
+    /**
+     * Pushed commands by class, e.g. {@code DoublePropertyUndo=120, ColorUndo=4}.
+     */
+    String getCommandCounts();
+
+    /**
+     * Count, mean, p50, p99 and max of every latency.
+     */
+    String getLatencySummary();
+
+}
@@ -0,0 +1,84 @@
+package com.gdetotut.samples.jundo.javafx.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
+
+/**
+ * Upgrades a stored subject from the version it was saved with to the latest one.
+ * <p>Steps are registered per stack id, each from one version to the next, and {@link #migrate} chains them:
+ * a v1 subject goes through v1→v2, then v2→v3 and so on. A version without a step breaks the chain and is reported,
+ * instead of handing an old subject to new code.
+ * <p>Steps may be registered and used from any thread.
+ */
+public final class MigrationRegistry {
+
+    /**
+     * Migration from one version to the next.
+     */
+    @FunctionalInterface
+    public interface Step {
+
+        /**
+         * @param subj Subject of the version the step is registered for; may be changed and returned.
+         * @return Subject of the next version.
+         */
+        ShapeState apply(ShapeState subj);
+    }
+
+    /**
+     * Steps of all stack ids in this application.
+     */
+    private static final MigrationRegistry STANDARD = new MigrationRegistry()
+            // V2 draws the circle with a stroke of its own; color, radius and center carry over as they are.
+            .register(IDS_STACK, 1, subj -> subj);
+
+    private final Map<String, ConcurrentSkipListMap<Integer, Step>> steps = new ConcurrentHashMap<>();
+
+    public static MigrationRegistry standard() {
+        return STANDARD;
+    }
+
+    /**
+     * @param from Version the step upgrades from, to {@code from + 1}.
+     * @throws IllegalStateException if a step from that version is already registered.
+     */
+    public MigrationRegistry register(String id, int from, Step step) {
+        if (steps.computeIfAbsent(id, k -> new ConcurrentSkipListMap<>()).putIfAbsent(from, step) != null) {
+            throw new IllegalStateException("Migration of " + id + " from version " + from + " is already registered");
+        }
+        return this;
+    }
+
+    /**
+     * Version subjects of this stack id are migrated to: one past the last registered step, {@code 1} if none.
+     */
+    public int latest(String id) {
+        ConcurrentSkipListMap<Integer, Step> s = steps.get(id);
+        return s == null || s.isEmpty() ? 1 : s.lastKey() + 1;
+    }
+
+    /**
+     * Runs the steps from {@code version} up to {@link #latest}.
+     *
+     * @throws IllegalArgumentException if the version is newer than the latest, or a step on the way is missing.
+     */
+    public ShapeState migrate(String id, int version, ShapeState subj) {
+        int latest = latest(id);
+        if (version > latest) {
+            throw new IllegalArgumentException(id + " version " + version + " is newer than " + latest);
+        }
+        Map<Integer, Step> s = steps.get(id);
+        for (int v = version; v < latest; ++v) {
+            Step step = s.get(v);
+            if (step == null) {
+                throw new IllegalArgumentException("No migration of " + id + " from version " + v);
+            }
+            subj = step.apply(subj);
+        }
+        return subj;
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.gdetotut.samples.jundo.javafx.model;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.Resources;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.codec.SubjectCodec;
+import javafx.beans.value.WritableDoubleValue;
+import javafx.beans.value.WritableObjectValue;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+
+import java.util.Objects;
+
+/**
+ * Plain state of the shape: color, radius and center.
+ * <p>Its slots can be bound as the {@link ShapeContext} of a {@link UndoStack} in place of the widgets' values,
+ * so the very same {@link BaseTab.UndoBulk} commands replay without controls, a scene or the FX toolkit.
+ */
+public class ShapeState {
+
+    public final ColorSlot color = new ColorSlot();
+    public final DoubleSlot radius = new DoubleSlot();
+    public final DoubleSlot x = new DoubleSlot();
+    public final DoubleSlot y = new DoubleSlot();
+
+    private ShapeContext.Binding binding;
+
+    /**
+     * Same initial values as the widgets of {@link BaseTab}.
+     */
+    public ShapeState() {
+        this(Color.RED, 40, 200, 200);
+    }
+
+    public ShapeState(Color color, double radius, double x, double y) {
+        this.color.value = color;
+        this.radius.value = radius;
+        this.x.value = x;
+        this.y.value = y;
+    }
+
+    /**
+     * Current state of a shape.
+     */
+    public static ShapeState of(Circle shape) {
+        return new ShapeState((Color) shape.getFill(), shape.getRadius(), shape.getCenterX(), shape.getCenterY());
+    }
+
+    /**
+     * Binds the stack's {@link ShapeContext} to the slots.
+     */
+    public void register(UndoStack stack, Resources res) {
+        ShapeContext.install(stack).resources(res).bind(binding());
+    }
+
+    /**
+     * The slots as a {@link ShapeContext} binding.
+     */
+    public ShapeContext.Binding binding() {
+        ShapeContext.Binding b = binding;
+        if (b == null) {
+            binding = b = new ShapeContext.Binding(color, radius, x, y);
+        }
+        return b;
+    }
+
+    public void set(ShapeState other) {
+        color.value = other.color.value;
+        radius.value = other.radius.value;
+        x.value = other.x.value;
+        y.value = other.y.value;
+    }
+
+    /**
+     * Moves the widgets of the tab to this state.
+     */
+    public void applyTo(BaseTab tab) {
+        tab.colorPicker.setValue(color.value);
+        tab.radius.setValue(radius.value);
+        tab.centerX.setValue(x.value);
+        tab.centerY.setValue(y.value);
+    }
+
+    /**
+     * Reads the subject of a stored {@code UndoPacket}, see {@link SubjectCodec}.
+     */
+    public static ShapeState fromSubject(Object subj) {
+        return SubjectCodec.fromJson((String) subj);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ShapeState)) return false;
+        ShapeState that = (ShapeState) o;
+        return Objects.equals(color.value, that.color.value)
+                && Double.compare(radius.value, that.radius.value) == 0
+                && Double.compare(x.value, that.x.value) == 0
+                && Double.compare(y.value, that.y.value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(color.value, radius.value, x.value, y.value);
+    }
+
+    @Override
+    public String toString() {
+        return "ShapeState{color=" + color.value + ", radius=" + radius.value + ", x=" + x.value + ", y=" + y.value + '}';
+    }
+
+    /**
+     * Plain holder for a double property; no listeners, no boxing on {@link #set}.
+     */
+    public static final class DoubleSlot implements WritableDoubleValue {
+
+        double value;
+
+        @Override
+        public double get() {
+            return value;
+        }
+
+        @Override
+        public void set(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public void setValue(Number value) {
+            this.value = value.doubleValue();
+        }
+
+        @Override
+        public Number getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Plain holder for the color.
+     */
+    public static final class ColorSlot implements WritableObjectValue<Color> {
+
+        Color value;
+
+        @Override
+        public Color get() {
+            return value;
+        }
+
+        @Override
+        public void set(Color value) {
+            this.value = value;
+        }
+
+        @Override
+        public Color getValue() {
+            return value;
+        }
+
+        @Override
+        public void setValue(Color value) {
+            this.value = value;
+        }
+    }
+
+}
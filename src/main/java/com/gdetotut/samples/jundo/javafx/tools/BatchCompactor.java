@@ -0,0 +1,87 @@
+package com.gdetotut.samples.jundo.javafx.tools;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.io.BinaryUndoFile;
+import com.gdetotut.samples.jundo.javafx.io.HistoryCompactor;
+import com.gdetotut.samples.jundo.javafx.io.UndoJournal;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
+
+/**
+ * Rewrites stored {@link BinaryUndoFile} histories with {@link HistoryCompactor}.
+ * <p>Id, version and subject are kept; the new file replaces the old one only when completely written.
+ * The {@link UndoJournal} next to a file ({@code undo.journal} for {@code undo.bin}) is replayed first, so its edits go
+ * into the new file, and is then started anew for it. A crash in between leaves the old journal, which no longer matches
+ * the new file and is ignored; its edits are in the file already.
+ * {@code UndoPacket} strings are left alone, convert them with {@link BatchMigrator} first.
+ * <p>Files are compacted in parallel, see {@link ParallelFiles}.
+ * <p>Usage: {@code BatchCompactor [-threads N] <file-or-dir>...}. Directories are scanned recursively.
+ * Exit code is 1 if any file fails.
+ */
+public final class BatchCompactor {
+
+    /**
+     * What happened to a file.
+     */
+    public enum Outcome {
+        COMPACTED, MINIMAL, SKIPPED, FAILED
+    }
+
+    private BatchCompactor() {
+    }
+
+    /**
+     * Compacts one file.
+     */
+    public static Outcome compact(Path file) throws IOException {
+        if (!ParallelFiles.isBinary(file)) {
+            return Outcome.SKIPPED;
+        }
+        BinaryUndoFile undoFile = BinaryUndoFile.open(file);
+        if (!IDS_STACK.equals(undoFile.getId())) {
+            return Outcome.SKIPPED;
+        }
+        ShapeState subj = undoFile.readSubject();
+        UndoStack stack = undoFile.restore(subj);
+        Path journal = journalOf(file);
+        // The journal moves the subject along with the stack.
+        subj.register(stack, null);
+        int replayed = UndoJournal.replay(file, journal, new UndoDriver(stack));
+        UndoStack compacted = HistoryCompactor.compact(stack, subj);
+        if (compacted.count() == stack.count() && replayed == 0) {
+            return Outcome.MINIMAL;
+        }
+        byte[] bytes = BinaryUndoFile.encode(compacted, undoFile.getId(), undoFile.getVersion(), subj);
+        ParallelFiles.replace(file, tmp -> Files.write(tmp, bytes));
+        if (Files.exists(journal)) {
+            UndoJournal.reset(journal, bytes);
+        }
+        return Outcome.COMPACTED;
+    }
+
+    private static Path journalOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".journal");
+    }
+
+    public static void main(String[] args) throws IOException {
+        ParallelFiles batch = ParallelFiles.parse(args);
+        long start = System.nanoTime();
+        int[] counts = batch.run(Outcome.class, Outcome.FAILED, BatchCompactor::compact);
+        System.out.printf("%d files in %d ms: %d compacted, %d minimal, %d skipped, %d failed%n",
+                batch.files.size(), (System.nanoTime() - start) / 1_000_000,
+                counts[Outcome.COMPACTED.ordinal()], counts[Outcome.MINIMAL.ordinal()],
+                counts[Outcome.SKIPPED.ordinal()], counts[Outcome.FAILED.ordinal()]);
+        if (counts[Outcome.FAILED.ordinal()] > 0) {
+            System.exit(1);
+        }
+    }
+
+}
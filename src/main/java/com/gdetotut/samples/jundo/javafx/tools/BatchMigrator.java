@@ -0,0 +1,115 @@
+package com.gdetotut.samples.jundo.javafx.tools;
+
+import com.gdetotut.jundo.UndoPacket;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.io.BinaryUndoFile;
+import com.gdetotut.samples.jundo.javafx.io.UndoJournal;
+import com.gdetotut.samples.jundo.javafx.model.MigrationRegistry;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
+
+/**
+ * Upgrades stored histories to the latest subject version of {@link MigrationRegistry#standard()}.
+ * <p>A {@link BinaryUndoFile} gets the migrated subject in its header, the rest is copied from the mapped file as is;
+ * the new file replaces the old one only when completely written. An {@link UndoPacket} string is restored headless
+ * and written next to it as a {@code .bin} file, which {@code JUndoCtrl_V2} prefers; the packet itself is kept.
+ * The {@link UndoJournal} next to a migrated {@code .bin} file is moved over to the new file.
+ * Files of the latest version and of other stacks are left alone.
+ * <p>Files are migrated in parallel, see {@link ParallelFiles}.
+ * <p>Usage: {@code BatchMigrator [-threads N] <file-or-dir>...}. Directories are scanned recursively.
+ * Exit code is 1 if any file fails.
+ */
+public final class BatchMigrator {
+
+    /**
+     * What happened to a file.
+     */
+    public enum Outcome {
+        MIGRATED, CURRENT, SKIPPED, FAILED
+    }
+
+    private final MigrationRegistry registry;
+
+    private final int latest;
+
+    public BatchMigrator(MigrationRegistry registry) {
+        this.registry = registry;
+        this.latest = registry.latest(IDS_STACK);
+    }
+
+    /**
+     * Migrates one file.
+     */
+    public Outcome migrate(Path file) throws Exception {
+        return ParallelFiles.isBinary(file) ? migrateBinary(file) : migratePacket(file);
+    }
+
+    private Outcome migrateBinary(Path file) throws IOException {
+        BinaryUndoFile undoFile = BinaryUndoFile.open(file);
+        if (!IDS_STACK.equals(undoFile.getId())) {
+            return Outcome.SKIPPED;
+        }
+        if (undoFile.getVersion() == latest) {
+            return Outcome.CURRENT;
+        }
+        ShapeState subj = registry.migrate(IDS_STACK, undoFile.getVersion(), undoFile.readSubject());
+        // The journal holds the same commands for the new file, but is tied to the old file's contents.
+        Path journal = file.resolveSibling(baseName(file) + ".journal");
+        boolean continued = UndoJournal.continues(file, journal);
+        ParallelFiles.replace(file, tmp -> undoFile.copyTo(tmp, latest, subj));
+        if (continued) {
+            UndoJournal.rebase(journal, file);
+        }
+        return Outcome.MIGRATED;
+    }
+
+    private Outcome migratePacket(Path file) throws Exception {
+        Path target = file.resolveSibling(baseName(file) + ".bin");
+        if (Files.exists(target)) {
+            // Already converted; the .bin file is migrated on its own.
+            return Outcome.CURRENT;
+        }
+        int[] version = new int[1];
+        ShapeState state = new ShapeState();
+        UndoStack stack = UndoPacket
+                .peek(new String(Files.readAllBytes(file)), subjInfo -> IDS_STACK.equals(subjInfo.id))
+                .restore((processedSubj, subjInfo) -> {
+                    version[0] = subjInfo.version;
+                    state.set(ShapeState.fromSubject(processedSubj));
+                    return state;
+                })
+                .stack((s, subjInfo) -> state.register(s, null));
+        if (stack == null) {
+            return Outcome.SKIPPED;
+        }
+        byte[] bytes = BinaryUndoFile.encode(stack, IDS_STACK, latest, registry.migrate(IDS_STACK, version[0], state));
+        ParallelFiles.replace(target, tmp -> Files.write(tmp, bytes));
+        return Outcome.MIGRATED;
+    }
+
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    public static void main(String[] args) throws IOException {
+        ParallelFiles batch = ParallelFiles.parse(args);
+        BatchMigrator migrator = new BatchMigrator(MigrationRegistry.standard());
+        long start = System.nanoTime();
+        int[] counts = batch.run(Outcome.class, Outcome.FAILED, migrator::migrate);
+        System.out.printf("%d files to version %d in %d ms: %d migrated, %d current, %d skipped, %d failed%n",
+                batch.files.size(), migrator.latest, (System.nanoTime() - start) / 1_000_000,
+                counts[Outcome.MIGRATED.ordinal()], counts[Outcome.CURRENT.ordinal()],
+                counts[Outcome.SKIPPED.ordinal()], counts[Outcome.FAILED.ordinal()]);
+        if (counts[Outcome.FAILED.ordinal()] > 0) {
+            System.exit(1);
+        }
+    }
+
+}
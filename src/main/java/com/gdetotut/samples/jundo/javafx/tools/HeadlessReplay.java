@@ -0,0 +1,147 @@
+package com.gdetotut.samples.jundo.javafx.tools;
+
+import com.gdetotut.jundo.UndoPacket;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.io.BinaryUndoFile;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v2.Resources_V2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
+
+/**
+ * Replays stored histories against a {@link ShapeState} instead of the widgets, so no FX toolkit is needed.
+ * <p>Both {@link BinaryUndoFile} snapshots and {@link UndoPacket} strings are accepted.
+ * <p>Each history is restored, swept down to index 0 and back up to the last command, then returned to the stored index.
+ * The state reached there must equal the stored subject; otherwise the history is reported as broken.
+ * <p>Usage: {@code HeadlessReplay <file-or-dir>...}. Directories are scanned recursively, files are processed in parallel.
+ * Exit code is 1 if any history fails.
+ */
+public final class HeadlessReplay {
+
+    /**
+     * Outcome of one replay.
+     */
+    public static final class Result {
+        public final ShapeState expected;
+        public final ShapeState actual;
+        public final int count;
+        public final int idx;
+
+        Result(ShapeState expected, ShapeState actual, int count, int idx) {
+            this.expected = expected;
+            this.actual = actual;
+            this.count = count;
+            this.idx = idx;
+        }
+
+        public boolean isConsistent() {
+            return expected.equals(actual);
+        }
+    }
+
+    private HeadlessReplay() {
+    }
+
+    /**
+     * Restores the stack from a packet made by {@code JUndoCtrl_V1} with its commands bound to {@code state}.
+     * <p>On return {@code state} holds the stored subject.
+     *
+     * @return Restored stack or {@code null} if the packet belongs to another stack.
+     */
+    public static UndoStack restore(String packet, ShapeState state) throws Exception {
+        return UndoPacket
+                .peek(packet, subjInfo -> IDS_STACK.equals(subjInfo.id))
+                .restore((processedSubj, subjInfo) -> {
+                    state.set(ShapeState.fromSubject(processedSubj));
+                    return state;
+                })
+                .stack((stack, subjInfo) -> state.register(stack, new Resources_V2()));
+    }
+
+    public static Result replay(String packet) throws Exception {
+        ShapeState state = new ShapeState();
+        UndoStack stack = restore(packet, state);
+        if (null == stack) {
+            throw new IllegalArgumentException("not a " + IDS_STACK + " packet");
+        }
+        return sweep(stack, state);
+    }
+
+    /**
+     * Replays a file in either {@link BinaryUndoFile} or {@link UndoPacket} form.
+     */
+    public static Result replay(Path file) throws Exception {
+        byte[] head = new byte[4];
+        try (InputStream in = Files.newInputStream(file)) {
+            if (in.read(head) < head.length) {
+                head = new byte[0];
+            }
+        }
+        if (!BinaryUndoFile.isBinary(head)) {
+            return replay(new String(Files.readAllBytes(file)));
+        }
+        BinaryUndoFile undoFile = BinaryUndoFile.open(file);
+        if (!IDS_STACK.equals(undoFile.getId())) {
+            throw new IllegalArgumentException("not a " + IDS_STACK + " file");
+        }
+        ShapeState state = undoFile.readSubject();
+        UndoStack stack = undoFile.restore(state);
+        state.register(stack, new Resources_V2());
+        return sweep(stack, state);
+    }
+
+    private static Result sweep(UndoStack stack, ShapeState state) {
+        ShapeState expected = new ShapeState();
+        expected.set(state);
+        int idx = stack.getIdx();
+        while (stack.canUndo()) {
+            stack.undo();
+        }
+        while (stack.canRedo()) {
+            stack.redo();
+        }
+        while (stack.getIdx() > idx) {
+            stack.undo();
+        }
+        return new Result(expected, state, stack.count(), idx);
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            try (Stream<Path> s = Files.walk(Paths.get(arg))) {
+                files.addAll(s.filter(Files::isRegularFile).collect(Collectors.toList()));
+            }
+        }
+        long failed = files.parallelStream().filter(path -> !check(path)).count();
+        System.out.println(files.size() + " histories, " + failed + " failed");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean check(Path path) {
+        try {
+            Result r = replay(path);
+            if (r.isConsistent()) {
+                System.out.println("OK   " + path + " commands=" + r.count + " idx=" + r.idx);
+                return true;
+            }
+            System.out.println("FAIL " + path + " expected " + r.expected + " but replay gave " + r.actual);
+        } catch (Exception e) {
+            System.out.println("FAIL " + path + ": " + e);
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.gdetotut.samples.jundo.javafx.tools;
+
+import com.gdetotut.samples.jundo.javafx.io.BinaryUndoFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs an action over many stored histories on a fork-join pool; shared by the batch tools.
+ * <p>Files are split between the threads, each of them handles one file at a time, so memory use does not depend
+ * on how many files there are.
+ */
+final class ParallelFiles {
+
+    /**
+     * @param <E> Outcomes of the action.
+     */
+    @FunctionalInterface
+    interface Action<E extends Enum<E>> {
+        E apply(Path file) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface Writer {
+        void write(Path file) throws IOException;
+    }
+
+    /**
+     * Files one task handles itself rather than splitting further.
+     */
+    private static final int THRESHOLD = 16;
+
+    /**
+     * Suffix of files being written; they are never picked up.
+     */
+    private static final String TMP_SUFFIX = ".partial";
+
+    final List<Path> files = new ArrayList<>();
+
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    private ParallelFiles() {
+    }
+
+    /**
+     * Parses {@code [-threads N] <file-or-dir>...}. Directories are scanned recursively.
+     */
+    static ParallelFiles parse(String[] args) throws IOException {
+        ParallelFiles batch = new ParallelFiles();
+        for (int i = 0; i < args.length; ++i) {
+            if ("-threads".equals(args[i]) && i + 1 < args.length) {
+                batch.threads = Integer.parseInt(args[++i]);
+                continue;
+            }
+            try (Stream<Path> s = Files.walk(Paths.get(args[i]))) {
+                batch.files.addAll(s.filter(Files::isRegularFile)
+                        .filter(path -> !path.toString().endsWith(TMP_SUFFIX))
+                        .collect(Collectors.toList()));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Applies the action to every file and prints each outcome.
+     *
+     * @param failed Outcome counted when the action throws.
+     * @return Counts of outcomes, by ordinal.
+     */
+    <E extends Enum<E>> int[] run(Class<E> type, E failed, Action<E> action) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new Task<>(type, failed, action, 0, files.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Whether the file is a {@link BinaryUndoFile} rather than an {@code UndoPacket} string.
+     */
+    static boolean isBinary(Path file) throws IOException {
+        byte[] head = new byte[4];
+        try (InputStream in = Files.newInputStream(file)) {
+            if (in.read(head) < head.length) {
+                return false;
+            }
+        }
+        return BinaryUndoFile.isBinary(head);
+    }
+
+    /**
+     * Writes a temporary file next to {@code target} and moves it over {@code target} once complete.
+     */
+    static void replace(Path target, Writer writer) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + TMP_SUFFIX);
+        try {
+            writer.write(tmp);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Handles files {@code [from, to)} of the list.
+     */
+    private final class Task<E extends Enum<E>> extends RecursiveTask<int[]> {
+
+        private final Class<E> type;
+        private final E failed;
+        private final Action<E> action;
+        private final int from;
+        private final int to;
+
+        Task(Class<E> type, E failed, Action<E> action, int from, int to) {
+            this.type = type;
+            this.failed = failed;
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                Task<E> left = new Task<>(type, failed, action, from, mid);
+                left.fork();
+                int[] counts = new Task<>(type, failed, action, mid, to).compute();
+                int[] other = left.join();
+                for (int i = 0; i < counts.length; ++i) {
+                    counts[i] += other[i];
+                }
+                return counts;
+            }
+            int[] counts = new int[type.getEnumConstants().length];
+            for (int i = from; i < to; ++i) {
+                Path file = files.get(i);
+                E outcome;
+                try {
+                    outcome = action.apply(file);
+                    System.out.println(outcome + " " + file);
+                } catch (Exception e) {
+                    outcome = failed;
+                    System.out.println(outcome + " " + file + ": " + e);
+                }
+                counts[outcome.ordinal()]++;
+            }
+            return counts;
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.gdetotut.samples.jundo.javafx.ui;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import javafx.animation.AnimationTimer;
+import javafx.beans.value.ObservableDoubleValue;
+import javafx.scene.control.Slider;
+import javafx.scene.paint.Color;
+
+/**
+ * Turns property changes of {@link BaseTab#shape} into commands.
+ * <p>A slider drag fires hundreds of change events per second. Instead of building and pushing a command for each of them,
+ * changes are only recorded (first old value, latest new value, no allocation) and flushed as one command per property
+ * on the next FX pulse, or at once when the drag gesture ends.
+ * <p>Stack operations that move the widgets themselves (undo, redo...) must run through {@link #apply},
+ * so that their changes are not captured as new commands.
+ */
+public class PropertyCapture {
+
+    /**
+     * String resource ids of the commands, see {@code Resources_V1}.
+     */
+    private static final int RES_COLOR = 0;
+    private static final int[] RES_DOUBLE = {1, 2, 3};
+
+    private static final DoubleProp[] PROPS = DoubleProp.values();
+
+    private final BaseTab tab;
+
+    private final UndoDriver driver;
+
+    private final ObservableDoubleValue[] values;
+
+    private final double[] last = new double[PROPS.length];
+    private final double[] from = new double[PROPS.length];
+    private final boolean[] dirty = new boolean[PROPS.length];
+
+    private Color lastColor;
+    private Color colorFrom;
+    private boolean colorDirty;
+
+    private boolean suspended;
+
+    private boolean scheduled;
+
+    private final AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            flush();
+        }
+    };
+
+    public PropertyCapture(BaseTab tab, UndoDriver driver) {
+        this.tab = tab;
+        this.driver = driver;
+        this.values = new ObservableDoubleValue[]{
+                tab.shape.radiusProperty(), tab.shape.centerXProperty(), tab.shape.centerYProperty()};
+        Slider[] sliders = {tab.radius, tab.centerX, tab.centerY};
+
+        lastColor = (Color) tab.shape.getFill();
+        tab.shape.fillProperty().addListener(observable -> onColor());
+        for (DoubleProp prop : PROPS) {
+            int i = prop.ordinal();
+            last[i] = values[i].get();
+            // Invalidation listener: reads the primitive value, so no boxed old/new values are created per event.
+            values[i].addListener(observable -> onDouble(i));
+            // End of the drag gesture: no need to wait for the pulse.
+            sliders[i].valueChangingProperty().addListener((observable, was, is) -> {
+                if (!is) {
+                    flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Pushes everything recorded so far.
+     */
+    public void flush() {
+        if (scheduled) {
+            scheduled = false;
+            pulse.stop();
+        }
+        UndoStack stack = driver.getStack();
+        suspended = true;
+        try {
+            if (colorDirty) {
+                colorDirty = false;
+                if (!colorFrom.equals(lastColor)) {
+                    driver.push(new BaseTab.UndoBulk.ColorUndo(stack, null, RES_COLOR, colorFrom, lastColor));
+                }
+            }
+            for (DoubleProp prop : PROPS) {
+                int i = prop.ordinal();
+                if (dirty[i]) {
+                    dirty[i] = false;
+                    if (from[i] != last[i]) {
+                        driver.push(new BaseTab.UndoBulk.DoublePropertyUndo(stack, null, RES_DOUBLE[i], prop, from[i], last[i]));
+                    }
+                }
+            }
+        } finally {
+            suspended = false;
+        }
+    }
+
+    /**
+     * Flushes pending changes, then runs a stack operation whose own changes of the widgets must not be captured.
+     */
+    public void apply(Runnable op) {
+        flush();
+        suspended = true;
+        try {
+            op.run();
+        } finally {
+            suspended = false;
+        }
+    }
+
+    private void onColor() {
+        Color c = (Color) tab.shape.getFill();
+        if (!suspended && !colorDirty) {
+            colorDirty = true;
+            colorFrom = lastColor;
+            schedule();
+        }
+        lastColor = c;
+    }
+
+    private void onDouble(int i) {
+        double v = values[i].get();
+        if (!suspended && !dirty[i]) {
+            dirty[i] = true;
+            from[i] = last[i];
+            schedule();
+        }
+        last[i] = v;
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            pulse.start();
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.gdetotut.samples.jundo.javafx.ui;
+
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import javafx.event.EventHandler;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.shape.Circle;
+
+/**
+ * Drag of {@link BaseTab#shape} with the mouse on {@link BaseTab#canvas}.
+ * <p>While dragging, only the shape's translation is set: no command, no slider update, nothing allocated per event.
+ * At release the translation is reset and one {@link BaseTab.UndoBulk.MoveUndo} moves both sliders.
+ */
+public class ShapeDrag {
+
+    /**
+     * String resource id of the command, see {@code Resources_V1}.
+     */
+    private static final int RES_MOVE = 4;
+
+    private final BaseTab tab;
+
+    private final UndoDriver driver;
+
+    private final PropertyCapture capture;
+
+    private boolean dragging;
+
+    private double startX;
+    private double startY;
+    private double anchorX;
+    private double anchorY;
+
+    private final EventHandler<MouseEvent> onPressed = this::pressed;
+    private final EventHandler<MouseEvent> onDragged = this::dragged;
+    private final EventHandler<MouseEvent> onReleased = this::released;
+
+    public ShapeDrag(BaseTab tab, UndoDriver driver, PropertyCapture capture) {
+        this.tab = tab;
+        this.driver = driver;
+        this.capture = capture;
+        tab.canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, onPressed);
+        tab.canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, onDragged);
+        tab.canvas.addEventHandler(MouseEvent.MOUSE_RELEASED, onReleased);
+    }
+
+    private void pressed(MouseEvent e) {
+        Circle shape = tab.shape;
+        if (e.getTarget() != shape || !e.isPrimaryButtonDown()) {
+            return;
+        }
+        dragging = true;
+        startX = shape.getCenterX();
+        startY = shape.getCenterY();
+        anchorX = e.getX();
+        anchorY = e.getY();
+        e.consume();
+    }
+
+    private void dragged(MouseEvent e) {
+        if (!dragging) {
+            return;
+        }
+        tab.shape.setTranslateX(clampX(startX + e.getX() - anchorX) - startX);
+        tab.shape.setTranslateY(clampY(startY + e.getY() - anchorY) - startY);
+        e.consume();
+    }
+
+    private void released(MouseEvent e) {
+        if (!dragging) {
+            return;
+        }
+        dragging = false;
+        double x = clampX(startX + e.getX() - anchorX);
+        double y = clampY(startY + e.getY() - anchorY);
+        tab.shape.setTranslateX(0);
+        tab.shape.setTranslateY(0);
+        if (x != startX || y != startY) {
+            // The push runs the command, which moves the sliders; that is not a change to capture.
+            capture.apply(() -> driver.push(new BaseTab.UndoBulk.MoveUndo(
+                    driver.getStack(), null, RES_MOVE, startX, startY, x, y)));
+        }
+        e.consume();
+    }
+
+    private double clampX(double x) {
+        return Math.max(tab.centerX.getMin(), Math.min(tab.centerX.getMax(), x));
+    }
+
+    private double clampY(double y) {
+        return Math.max(tab.centerY.getMin(), Math.min(tab.centerY.getMax(), y));
+    }
+
+}
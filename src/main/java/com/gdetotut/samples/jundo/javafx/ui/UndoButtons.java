@@ -0,0 +1,95 @@
+package com.gdetotut.samples.jundo.javafx.ui;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab;
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.Button;
+
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the undo, redo, save and revert buttons of a tab in line with the stack, and the branch button in tree mode.
+ * <p>The watcher only calls {@link #invalidate}; the buttons are refreshed once on the next FX pulse, however many
+ * times the stack changed meanwhile. A refresh touches only what actually changed, and rebuilds a button's text
+ * only when the caption is a different string.
+ */
+public class UndoButtons {
+
+    private final BaseTab tab;
+
+    private final UndoStack stack;
+
+    private boolean scheduled;
+
+    private BooleanSupplier otherBranch;
+
+    private String undoCaption;
+    private String redoCaption;
+
+    private final AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            refresh();
+        }
+    };
+
+    public UndoButtons(BaseTab tab, UndoStack stack) {
+        this.tab = tab;
+        this.stack = stack;
+    }
+
+    /**
+     * Shows the branch button, enabled while {@code otherBranch} says there is a branch to switch to.
+     */
+    public void setOtherBranch(BooleanSupplier otherBranch) {
+        this.otherBranch = otherBranch;
+        tab.branchBtn.setVisible(true);
+        invalidate();
+    }
+
+    /**
+     * Schedules a refresh for the next pulse. Must be called on the FX thread.
+     */
+    public void invalidate() {
+        if (!scheduled) {
+            scheduled = true;
+            pulse.start();
+        }
+    }
+
+    /**
+     * Refreshes now.
+     */
+    public void refresh() {
+        if (scheduled) {
+            scheduled = false;
+            pulse.stop();
+        }
+        boolean clean = stack.isClean();
+        setDisable(tab.undoBtn, !stack.canUndo());
+        setDisable(tab.redoBtn, !stack.canRedo());
+        setDisable(tab.saveBtn, clean);
+        setDisable(tab.revertBtn, clean);
+        if (otherBranch != null) {
+            setDisable(tab.branchBtn, !otherBranch.getAsBoolean());
+        }
+        String undo = stack.undoCaption();
+        if (!Objects.equals(undo, undoCaption)) {
+            undoCaption = undo;
+            tab.undoBtn.setText("undo: " + undo);
+        }
+        String redo = stack.redoCaption();
+        if (!Objects.equals(redo, redoCaption)) {
+            redoCaption = redo;
+            tab.redoBtn.setText("redo: " + redo);
+        }
+    }
+
+    private static void setDisable(Button button, boolean disable) {
+        if (button.isDisable() != disable) {
+            button.setDisable(disable);
+        }
+    }
+
+}
@@ -1,22 +1,32 @@
 package com.gdetotut.samples.jundo.javafx.v1;
 
-import com.gdetotut.jundo.UndoPacket;
 import com.gdetotut.jundo.UndoStack;
 import com.gdetotut.jundo.UndoWatcher;
 import com.gdetotut.samples.jundo.javafx.BaseCtrl;
 import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.Checkpoints;
+import com.gdetotut.samples.jundo.javafx.CommandIngest;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.UndoTree;
+import com.gdetotut.samples.jundo.javafx.io.AsyncSaver;
+import com.gdetotut.samples.jundo.javafx.io.BinaryUndoFile;
+import com.gdetotut.samples.jundo.javafx.io.PagedHistory;
+import com.gdetotut.samples.jundo.javafx.io.StackSnapshot;
+import com.gdetotut.samples.jundo.javafx.io.UndoJournal;
+import com.gdetotut.samples.jundo.javafx.log.EventLog;
+import com.gdetotut.samples.jundo.javafx.log.EventType;
+import com.gdetotut.samples.jundo.javafx.metrics.MeteredDriver;
+import com.gdetotut.samples.jundo.javafx.metrics.MeteredWatcher;
+import com.gdetotut.samples.jundo.javafx.metrics.UndoMetrics;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.ui.PropertyCapture;
+import com.gdetotut.samples.jundo.javafx.ui.ShapeDrag;
+import com.gdetotut.samples.jundo.javafx.ui.UndoButtons;
 import com.gdetotut.samples.jundo.javafx.v2.JUndoTab_V2;
-import com.google.gson.Gson;
 import javafx.scene.control.TabPane;
-import javafx.scene.paint.Color;
-import org.hildan.fxgson.FxGson;
 
-import java.io.IOException;
-import java.io.Serializable;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
 
 import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
 
@@ -25,139 +35,167 @@ import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
  */
 public class JUndoCtrl_V1 extends BaseCtrl implements UndoWatcher {
 
+    /**
+     * Source of this controller's events in {@link EventLog}.
+     */
+    private static final String SOURCE = "V1";
+
     private final BaseTab tab;
 
     private final UndoStack stack;
 
+    private final UndoDriver driver;
+
+    private final PropertyCapture capture;
+
+    private final UndoButtons buttons;
+
+    private final EventLog log = EventLog.shared();
+
+    private final Checkpoints checkpoints;
+
+    private final UndoJournal journal;
+
+    private final AsyncSaver saver;
+
+    private final CommandIngest ingest;
+
+    /**
+     * Kept redo branches; {@code null} unless the {@code jundo.tree} system property is set.
+     */
+    private final UndoTree tree;
+
     public JUndoCtrl_V1(BaseTab tab, TabPane tabPane) {
         this.tab = tab;
 
         stack = new UndoStack(tab.shape, null);
         // Set local contexts.
-        stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_RES, new Resources_V1());
-        stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_COLOR_PICKER, tab.colorPicker);
-        stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_RADIUS_SLIDER, tab.radius);
-        stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_X_SLIDER, tab.centerX);
-        stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_Y_SLIDER, tab.centerY);
+        ShapeContext.install(stack).resources(new Resources_V1()).bind(tab);
+        // Timings and counters, see the UndoMetrics MBean in JConsole.
+        UndoMetrics metrics = new UndoMetrics().register("V1");
+        tab.onDiscarded(metrics::unregister);
         //Set stack's event handler.
-        stack.setWatcher(this);
-
-        // Link commands creation to widget listeners
-        tab.shape.fillProperty().addListener(
-                (observable, oldValue, newValue)
-                        -> stack.push(new BaseTab.UndoBulk.ColorUndo(
-                        stack, null, 0, (Color) oldValue, (Color) newValue)
-                ));
-        tab.shape.radiusProperty().addListener(
-                (observable, oldValue, newValue)
-                        -> stack.push(new BaseTab.UndoBulk.RadiusUndo(
-                        stack, null, 1, oldValue, newValue)));
-
-        tab.shape.centerXProperty().addListener(
-                (observable, oldValue, newValue)
-                        -> stack.push(new BaseTab.UndoBulk.XUndo(
-                        stack, null, 2, oldValue, newValue)));
-
-        tab.shape.centerYProperty().addListener(
-                (observable, oldValue, newValue)
-                        -> stack.push(new BaseTab.UndoBulk.YUndo(
-                        stack, null, 3, oldValue, newValue)));
+        UndoWatcher watcher = new MeteredWatcher(this, metrics);
+        // Buttons follow the stack once per pulse, not on every watcher call.
+        buttons = new UndoButtons(tab, stack);
+        stack.setWatcher(watcher);
+
+        // All changes of the stack go through the driver, so the journal sees them.
+        driver = new MeteredDriver(stack, metrics);
+        journal = new UndoJournal(driver, Paths.get("./undo.bin"), Paths.get("./undo.journal"),
+                () -> StackSnapshot.take(driver, ShapeState.of(tab.shape), IDS_STACK, 1));
+        if (Boolean.getBoolean("jundo.tree")) {
+            // Redo branches are kept instead of dropped; the tree holds every command, so no paging.
+            tree = new UndoTree(driver, ShapeState.of(tab.shape), watcher, UndoTree.DEFAULT_STRIDE);
+            buttons.setOtherBranch(tree::hasOtherBranch);
+        } else {
+            tree = null;
+            // Old commands go to disk past the memory budget.
+            PagedHistory paged = PagedHistory.install(driver);
+            if (paged != null) {
+                tab.onDiscarded(paged::close);
+            }
+        }
+        saver = new AsyncSaver(journal);
+        saver.setMetrics(metrics);
+        tab.onDiscarded(saver::close);
+
+        // Far jumps restore a checkpoint instead of moving the widgets step by step.
+        checkpoints = new Checkpoints(driver, ShapeState.of(tab.shape), watcher, Checkpoints.DEFAULT_STRIDE);
+
+        // Link commands creation to widget listeners, one command per property per pulse
+        capture = new PropertyCapture(tab, driver);
+        // Drag of the shape itself: one command for both coordinates, pushed at mouse release.
+        new ShapeDrag(tab, driver, capture);
+        // Changes from background threads, pushed in batches on the FX thread.
+        ingest = new CommandIngest(driver, capture::apply);
         // ~
 
         // Initial call of event handler.
         // At this moment stack is empty, index is 0
-        indexChanged(stack.getIdx());
+        buttons.refresh();
 
         // Link stack to widget actions
-        tab.undoBtn.setOnAction(event -> stack.undo());
-        tab.redoBtn.setOnAction(event -> stack.redo());
-        tab.saveBtn.setOnAction(event -> stack.setClean());
+        tab.undoBtn.setOnAction(event -> capture.apply(driver::undo));
+        tab.redoBtn.setOnAction(event -> capture.apply(driver::redo));
+        tab.saveBtn.setOnAction(event -> {
+            capture.apply(driver::setClean);
+            serialize(null);
+        });
+        tab.revertBtn.setOnAction(event -> capture.apply(() -> {
+            ShapeState saved = checkpoints.revertToClean();
+            if (saved != null) {
+                saved.applyTo(tab);
+            }
+        }));
+        if (tree != null) {
+            tab.branchBtn.setOnAction(event -> capture.apply(tree::nextBranch));
+        }
         // ~
 
-        tab.serialBtn.setOnAction(event -> {
-            try {
-                // Store then go to tab_V2.
-                serialize();
-                if (tabPane.getTabs().size() > 1) {
-                    tabPane.getTabs().remove(1);
-                }
-                tabPane.getTabs().add(new JUndoTab_V2("JUndo_V2"));
-                tabPane.getSelectionModel().select(1);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
+        // Store then go to tab_V2, once the files are written.
+        tab.serialBtn.setOnAction(event -> serialize(() -> {
+            tabPane.getTabs().removeIf(t -> t instanceof JUndoTab_V2);
+            JUndoTab_V2 tabV2 = new JUndoTab_V2("JUndo_V2");
+            tabPane.getTabs().add(tabV2);
+            tabPane.getSelectionModel().select(tabV2);
+        }));
     }
 
     /**
-     * Here demonstrates how to work with the non-serializable subject.
-     * <p>We just save specific values in the map.
+     * Entry point for changes made by threads other than the FX thread.
      */
-    private void serialize() throws IOException {
-        try {
-            String store = UndoPacket
-                    .make(stack, IDS_STACK, 1)
-                    .onStore(new UndoPacket.OnStore() {
-                        @Override
-                        public Serializable handle(Object subj) {
-                            Map<String, Object> props = new HashMap<>();
-                            Gson fxGson = FxGson.createWithExtras();
-                            props.put("color", FxGson.createWithExtras().toJson(tab.shape.getFill()));
-                            props.put("radius", FxGson.createWithExtras().toJson(tab.shape.getRadius()));
-                            props.put("x", FxGson.createWithExtras().toJson(tab.shape.getCenterX()));
-                            props.put("y", FxGson.createWithExtras().toJson(tab.shape.getCenterY()));
-                            return fxGson.toJson(props);
-                        }
-                    })
-                    .zipped(true)
-                    .store();
-            // Save it in the file.
-            Files.write(Paths.get("./undo.txt"), store.getBytes());
-        } catch (Exception e) {
-            System.err.println(e.getLocalizedMessage());
-        }
+    public CommandIngest getIngest() {
+        return ingest;
     }
 
-    private void save() {
-        // implement save action here
+    /**
+     * Saves the edits made since the previous save.
+     * <p>The whole stack is stored only by the first save of the session and when the journal gets compacted,
+     * see {@link UndoJournal}. Then it is stored in {@link BinaryUndoFile} form, together with the shape's state
+     * as the subject.
+     * <p>Files are written in the background by {@link AsyncSaver}, so a long history does not freeze the UI.
+     *
+     * @param onSaved Called on the FX thread once the files are written; may be {@code null}.
+     */
+    private void serialize(Runnable onSaved) {
+        // Changes of the current pulse belong to the stored history too.
+        capture.flush();
+        saver.save(onSaved, e -> System.err.println(e.getLocalizedMessage()));
     }
 
     /**
      */
     @Override
     public void indexChanged(int idx) {
-        tab.undoBtn.setDisable(!stack.canUndo());
-        tab.redoBtn.setDisable(!stack.canRedo());
-        tab.saveBtn.setDisable(stack.isClean());
-        tab.undoBtn.setText("undo: " + stack.undoCaption());
-        tab.redoBtn.setText("redo: " + stack.redoCaption());
+        buttons.invalidate();
     }
 
     // TODO: 14.01.18 Кнопку Save и все обработчики
 
     @Override
     public void cleanChanged(boolean clean) {
-        tab.saveBtn.setDisable(clean);
-        System.out.println("cleanChanged: " + clean);
+        buttons.invalidate();
+        log.log(SOURCE, EventType.CLEAN_CHANGED, clean);
     }
 
     @Override
     public void canUndoChanged(boolean canUndo) {
-        System.out.println("canUndoChanged: " + canUndo);
+        log.log(SOURCE, EventType.CAN_UNDO_CHANGED, canUndo);
     }
 
     @Override
     public void canRedoChanged(boolean canRedo) {
-        System.out.println("canRedoChanged: " + canRedo);
+        log.log(SOURCE, EventType.CAN_REDO_CHANGED, canRedo);
     }
 
     @Override
     public void undoTextChanged(String undoText) {
-        System.out.println("undoTextChanged: " + undoText);
+        log.log(SOURCE, EventType.UNDO_TEXT_CHANGED, 0, undoText);
     }
 
     @Override
     public void redoTextChanged(String redoText) {
-        System.out.println("redoTextChanged: " + redoText);
+        log.log(SOURCE, EventType.REDO_TEXT_CHANGED, 0, redoText);
     }
 }
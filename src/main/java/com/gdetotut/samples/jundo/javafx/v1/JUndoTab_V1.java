@@ -1,6 +1,7 @@
 package com.gdetotut.samples.jundo.javafx.v1;
 
 import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.CommandIngest;
 import javafx.scene.control.TabPane;
 import javafx.scene.shape.Circle;
 
@@ -9,9 +10,18 @@ import javafx.scene.shape.Circle;
  */
 public class JUndoTab_V1 extends BaseTab {
 
+    private final JUndoCtrl_V1 ctrl;
+
     public JUndoTab_V1(String text, TabPane tabPane) {
         super(text, new Circle());
-        new JUndoCtrl_V1(this, tabPane);
+        ctrl = new JUndoCtrl_V1(this, tabPane);
         serialBtn.setText("Store stack and migrate to V2");
     }
+
+    /**
+     * @see JUndoCtrl_V1#getIngest
+     */
+    public CommandIngest getIngest() {
+        return ctrl.getIngest();
+    }
 }
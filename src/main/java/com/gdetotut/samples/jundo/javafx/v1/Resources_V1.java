@@ -11,7 +11,8 @@ public class Resources_V1 implements Resources {
             "color(v1)",
             "radius(v1)",
             "centerX(v1)",
-            "centerY(v1)"
+            "centerY(v1)",
+            "move(v1)"
     };
 
     @Override
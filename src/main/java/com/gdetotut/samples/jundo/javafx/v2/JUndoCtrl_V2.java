@@ -1,21 +1,32 @@
 package com.gdetotut.samples.jundo.javafx.v2;
 
-import com.gdetotut.jundo.UndoPacket;
 import com.gdetotut.jundo.UndoStack;
 import com.gdetotut.jundo.UndoWatcher;
 import com.gdetotut.samples.jundo.javafx.BaseCtrl;
 import com.gdetotut.samples.jundo.javafx.BaseTab;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import javafx.scene.paint.Color;
-import org.hildan.fxgson.FxGson;
+import com.gdetotut.samples.jundo.javafx.Checkpoints;
+import com.gdetotut.samples.jundo.javafx.CommandIngest;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.io.PagedHistory;
+import com.gdetotut.samples.jundo.javafx.log.EventLog;
+import com.gdetotut.samples.jundo.javafx.log.EventType;
+import com.gdetotut.samples.jundo.javafx.metrics.MeteredDriver;
+import com.gdetotut.samples.jundo.javafx.metrics.MeteredWatcher;
+import com.gdetotut.samples.jundo.javafx.metrics.UndoMetrics;
+import com.gdetotut.samples.jundo.javafx.ui.PropertyCapture;
+import com.gdetotut.samples.jundo.javafx.ui.ShapeDrag;
+import com.gdetotut.samples.jundo.javafx.ui.UndoButtons;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
 
-import java.lang.reflect.Type;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
-
-import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
 
 
 /**
@@ -23,78 +34,159 @@ import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
  */
 public class JUndoCtrl_V2 extends BaseCtrl implements UndoWatcher{
 
+    /**
+     * Source of this controller's events in {@link EventLog}.
+     */
+    private static final String SOURCE = "V2";
+
     private final BaseTab tab;
 
+    private final UndoMetrics metrics;
+
+    /**
+     * Widgets of the tab, disabled while the history is being restored.
+     */
+    private final Node content;
+
     private UndoStack stack;
 
-    public JUndoCtrl_V2(BaseTab tab) throws Exception {
+    private UndoDriver driver;
+
+    private PropertyCapture capture;
+
+    private UndoButtons buttons;
+
+    private final EventLog log = EventLog.shared();
+
+    private Checkpoints checkpoints;
+
+    /**
+     * Attached to the stack once it is restored.
+     */
+    private final CommandIngest ingest = new CommandIngest();
+
+    /**
+     * The tab was closed or replaced; a restore finishing later is dropped.
+     */
+    private boolean discarded;
+
+    /**
+     * Shows the tab at once; the stored history is restored in the background, see {@link RestoreTask}.
+     * Until it is attached the widgets are disabled and a progress bar with a cancel button is shown above them.
+     * A cancelled or failed restore leaves the tab with an empty history.
+     */
+    public JUndoCtrl_V2(BaseTab tab) {
         this.tab = tab;
+        this.content = tab.getContent();
+
+        // Timings and counters, see the UndoMetrics MBean in JConsole.
+        metrics = new UndoMetrics().register("V2");
+        tab.onDiscarded(metrics::unregister);
+        long start = System.nanoTime();
+
+        RestoreTask task = new RestoreTask(tab.shape,
+                Paths.get("./undo.bin"), Paths.get("./undo.journal"), Paths.get("./undo.txt"));
+        task.setOnSucceeded(event -> attach(task.getValue(), start));
+        task.setOnFailed(event -> {
+            System.err.println(task.getException().getLocalizedMessage());
+            attach(null, start);
+        });
+        task.setOnCancelled(event -> attach(null, start));
+        tab.onDiscarded(() -> {
+            discarded = true;
+            task.cancel();
+        });
+        showProgress(task);
+
+        Thread worker = new Thread(task, "undo-restore");
+        worker.setDaemon(true);
+        worker.start();
+    }
 
-        String store = new String(Files.readAllBytes(Paths.get("./undo.txt")));
-
-        stack = UndoPacket
-                // Check whether we got appropriate stack
-                .peek(store, subjInfo -> IDS_STACK.equals(subjInfo.id))
-                // Manual restoring (because we store non-serializable type)
-                .restore((processedSubj, subjInfo) -> {
-                    Type type = new TypeToken<HashMap<String, Object>>(){}.getType();
-                    HashMap<String, Object> map = new Gson().fromJson((String) processedSubj, type);
-                    if(subjInfo.version == 1) {
-                        // Second - migration from V1 to V2!
-                        Gson fxGson = FxGson.createWithExtras();
-                        Color c = fxGson.fromJson(map.get("color").toString(), Color.class);
-                        tab.colorPicker.setValue(c);
-                        Double r = fxGson.fromJson(map.get("radius").toString(), Double.class);
-                        tab.radius.setValue(r);
-                        Double x = fxGson.fromJson(map.get("x").toString(), Double.class);
-                        tab.centerX.setValue(x);
-                        Double y = fxGson.fromJson(map.get("y").toString(), Double.class);
-                        tab.centerY.setValue(y);
-                    }
-                    return map;
-                }).stack((stack, subjInfo) -> {
-                    // Restore new local contexts
-                    stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_RES, new Resources_V2());
-                    stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_COLOR_PICKER, tab.colorPicker);
-                    stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_RADIUS_SLIDER, tab.radius);
-                    stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_X_SLIDER, tab.centerX);
-                    stack.getLocalContexts().put(BaseTab.UndoBulk.IDS_Y_SLIDER, tab.centerY);
-                });
-
-        if(null == stack)
-            stack = new UndoStack(tab.shape, null);
-        stack.setWatcher(this);
-
-        // Link commands creation to widget listeners
-        tab.shape.fillProperty().addListener(
-                (observable, oldValue, newValue)
-                        -> stack.push(new BaseTab.UndoBulk.ColorUndo(
-                        stack, null, 0, (Color)oldValue, (Color)newValue)
-                ));
-        tab.shape.radiusProperty().addListener(
-                (observable, oldValue, newValue)
-                        -> stack.push(new BaseTab.UndoBulk.RadiusUndo(
-                        stack, null, 1, oldValue, newValue)));
-
-        tab.shape.centerXProperty().addListener(
-                (observable, oldValue, newValue)
-                        -> stack.push(new BaseTab.UndoBulk.XUndo(
-                        stack, null, 2, oldValue, newValue)));
-
-        tab.shape.centerYProperty().addListener(
-                (observable, oldValue, newValue)
-                        -> stack.push(new BaseTab.UndoBulk.YUndo(
-                        stack, null, 3, oldValue, newValue)));
+    private void showProgress(RestoreTask task) {
+        ProgressBar bar = new ProgressBar();
+        bar.progressProperty().bind(task.progressProperty());
+        Label status = new Label();
+        status.textProperty().bind(task.messageProperty());
+        Button cancel = new Button("Cancel");
+        cancel.setOnAction(event -> task.cancel());
+        HBox panel = new HBox(10.0, status, bar, cancel);
+        panel.setAlignment(Pos.CENTER);
+        VBox root = new VBox(10.0, panel, content);
+        root.setAlignment(Pos.CENTER);
+        content.setDisable(true);
+        tab.setContent(root);
+    }
 
+    /**
+     * Takes over the restored stack, or a new one if there is none, and links it to the widgets. FX thread.
+     */
+    private void attach(RestoreTask.Restored restored, long start) {
+        if (discarded) {
+            return;
+        }
+        tab.setContent(content);
+        content.setDisable(false);
+
+        if (null == restored) {
+            stack = new UndoStack(tab.shape, null);
+            setLocalContexts(stack);
+        } else {
+            stack = restored.stack;
+            // From the headless state to the widgets.
+            setLocalContexts(stack);
+            restored.state.applyTo(tab);
+        }
+        driver = new MeteredDriver(stack, metrics);
+        metrics.recordRestore(System.nanoTime() - start);
+        // Old commands go to disk past the memory budget.
+        PagedHistory paged = PagedHistory.install(driver);
+        if (paged != null) {
+            tab.onDiscarded(paged::close);
+        }
+        UndoWatcher watcher = new MeteredWatcher(this, metrics);
+        // Buttons follow the stack once per pulse, not on every watcher call.
+        buttons = new UndoButtons(tab, stack);
+        stack.setWatcher(watcher);
+
+        // Far jumps restore a checkpoint instead of moving the widgets step by step.
+        checkpoints = new Checkpoints(driver, ShapeState.of(tab.shape), watcher, Checkpoints.DEFAULT_STRIDE);
+
+        // Link commands creation to widget listeners, one command per property per pulse
+        capture = new PropertyCapture(tab, driver);
+        // Drag of the shape itself: one command for both coordinates, pushed at mouse release.
+        new ShapeDrag(tab, driver, capture);
+        // Changes from background threads, pushed in batches on the FX thread.
+        ingest.attach(driver, capture::apply);
 
         // Initial call of event handler.
-        // At this moment stack is empty, index is 0
-        indexChanged(stack.getIdx());
+        buttons.refresh();
 
         // Link stack to widget actions
-        tab.undoBtn.setOnAction(event -> stack.undo());
-        tab.redoBtn.setOnAction(event -> stack.redo());
-        tab.saveBtn.setOnAction(event -> stack.setClean());
+        tab.undoBtn.setOnAction(event -> capture.apply(driver::undo));
+        tab.redoBtn.setOnAction(event -> capture.apply(driver::redo));
+        tab.saveBtn.setOnAction(event -> capture.apply(driver::setClean));
+        tab.revertBtn.setOnAction(event -> capture.apply(() -> {
+            ShapeState saved = checkpoints.revertToClean();
+            if (saved != null) {
+                saved.applyTo(tab);
+            }
+        }));
+    }
+
+    /**
+     * Entry point for changes made by threads other than the FX thread. Values offered while the history is being
+     * restored are pushed once it is attached, onto the restored stack.
+     */
+    public CommandIngest getIngest() {
+        return ingest;
+    }
+
+    /**
+     * Restore new local contexts.
+     */
+    private void setLocalContexts(UndoStack stack) {
+        ShapeContext.install(stack).resources(new Resources_V2()).bind(tab);
     }
 
     private void save() {
@@ -103,36 +195,32 @@ public class JUndoCtrl_V2 extends BaseCtrl implements UndoWatcher{
 
     @Override
     public void indexChanged(int idx) {
-        tab.undoBtn.setDisable(!stack.canUndo());
-        tab.redoBtn.setDisable(!stack.canRedo());
-        tab.saveBtn.setDisable(stack.isClean());
-        tab.undoBtn.setText("undo: " + stack.undoCaption());
-        tab.redoBtn.setText("redo: " + stack.redoCaption());
+        buttons.invalidate();
     }
 
     @Override
     public void cleanChanged(boolean clean) {
-        tab.saveBtn.setDisable(clean);
-        System.out.println("cleanChanged: " + clean);
+        buttons.invalidate();
+        log.log(SOURCE, EventType.CLEAN_CHANGED, clean);
     }
 
     @Override
     public void canUndoChanged(boolean canUndo) {
-        System.out.println("canUndoChanged: " + canUndo);
+        log.log(SOURCE, EventType.CAN_UNDO_CHANGED, canUndo);
     }
 
     @Override
     public void canRedoChanged(boolean canRedo) {
-        System.out.println("canRedoChanged: " + canRedo);
+        log.log(SOURCE, EventType.CAN_REDO_CHANGED, canRedo);
     }
 
     @Override
     public void undoTextChanged(String undoText) {
-        System.out.println("undoTextChanged: " + undoText);
+        log.log(SOURCE, EventType.UNDO_TEXT_CHANGED, 0, undoText);
     }
 
     @Override
     public void redoTextChanged(String redoText) {
-        System.out.println("redoTextChanged: " + redoText);
+        log.log(SOURCE, EventType.REDO_TEXT_CHANGED, 0, redoText);
     }
 }
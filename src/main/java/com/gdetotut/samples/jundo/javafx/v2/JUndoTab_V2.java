@@ -1,20 +1,26 @@
 package com.gdetotut.samples.jundo.javafx.v2;
 
 import com.gdetotut.samples.jundo.javafx.BaseTab;
+import com.gdetotut.samples.jundo.javafx.CommandIngest;
 import javafx.scene.shape.Circle;
 
-import java.io.IOException;
-
 /**
  * Во вкладке V2 в качестве {@link #shape} используется наследник {@link Circle} для демонстрации миграции субъекта стека.
  */
 public class JUndoTab_V2 extends BaseTab {
 
-//    private final JUndoCtrl_V2 ctrl;
+    private final JUndoCtrl_V2 ctrl;
 
-    public JUndoTab_V2(String text) throws Exception {
+    public JUndoTab_V2(String text) {
         super(text, new Circle_V2());
-        new JUndoCtrl_V2(this);
+        ctrl = new JUndoCtrl_V2(this);
         serialBtn.setVisible(false);
     }
+
+    /**
+     * @see JUndoCtrl_V2#getIngest
+     */
+    public CommandIngest getIngest() {
+        return ctrl.getIngest();
+    }
 }
@@ -8,6 +8,7 @@ public class Resources_V2 implements Resources {
     private final String IDS_R = "radius(v2)";
     private final String IDS_X = "centerX(v2)";
     private final String IDS_Y = "centerY(v2)";
+    private final String IDS_MOVE = "move(v2)";
 
     @Override
     public String getString(int resId) {
@@ -20,6 +21,8 @@ public class Resources_V2 implements Resources {
                 return IDS_X;
             case 3:
                 return IDS_Y;
+            case 4:
+                return IDS_MOVE;
             default:
                 return "???";
         }
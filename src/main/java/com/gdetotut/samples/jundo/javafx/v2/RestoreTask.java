@@ -0,0 +1,145 @@
+package com.gdetotut.samples.jundo.javafx.v2;
+
+import com.gdetotut.jundo.UndoPacket;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.io.BinaryUndoFile;
+import com.gdetotut.samples.jundo.javafx.io.UndoJournal;
+import com.gdetotut.samples.jundo.javafx.model.MigrationRegistry;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import javafx.concurrent.Task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
+
+/**
+ * Restores the history stored by {@code JUndoCtrl_V1} off the FX thread.
+ * <p>The stack is restored headless: its context is bound to a {@link ShapeState}, which the journal replay moves
+ * instead of the widgets. {@link JUndoCtrl_V2} binds the finished stack to the tab and applies the state on the FX thread.
+ * <p>Progress is reported per step, and by bytes while an {@link UndoPacket} string is read. A cancelled task stops
+ * at the next step or chunk; its result is never used. The value is {@code null} if there is no history of this stack.
+ */
+final class RestoreTask extends Task<RestoreTask.Restored> {
+
+    /**
+     * Brings stored subjects of any earlier version to this one.
+     */
+    private static final MigrationRegistry MIGRATIONS = MigrationRegistry.standard();
+
+    private static final int CHUNK = 64 * 1024;
+
+    /**
+     * A restored stack and the subject's state at its current index.
+     */
+    static final class Restored {
+        final UndoStack stack;
+        final ShapeState state;
+
+        Restored(UndoStack stack, ShapeState state) {
+            this.stack = stack;
+            this.state = state;
+        }
+    }
+
+    private final Object subj;
+
+    private final Path bin;
+
+    private final Path journal;
+
+    private final Path packet;
+
+    /**
+     * @param subj Subject of the restored stack; only referenced, not touched.
+     */
+    RestoreTask(Object subj, Path bin, Path journal, Path packet) {
+        this.subj = subj;
+        this.bin = bin;
+        this.journal = journal;
+        this.packet = packet;
+    }
+
+    @Override
+    protected Restored call() throws Exception {
+        if (Files.exists(bin)) {
+            return restoreBinary();
+        }
+        if (Files.exists(packet)) {
+            return restorePacket();
+        }
+        return null;
+    }
+
+    /**
+     * Maps the binary snapshot; commands are decoded lazily, so the stack is built without decoding any of them.
+     */
+    private Restored restoreBinary() throws IOException {
+        updateMessage("Opening " + bin.getFileName());
+        updateProgress(0, 3);
+        BinaryUndoFile undoFile = BinaryUndoFile.open(bin);
+        if (!IDS_STACK.equals(undoFile.getId())) {
+            return null;
+        }
+        // Migration from the stored version to V2!
+        ShapeState state = MIGRATIONS.migrate(IDS_STACK, undoFile.getVersion(), undoFile.readSubject());
+        updateProgress(1, 3);
+        if (isCancelled()) {
+            return null;
+        }
+        UndoStack stack = undoFile.restoreLazy(subj);
+        state.register(stack, new Resources_V2());
+        updateProgress(2, 3);
+        if (isCancelled()) {
+            return null;
+        }
+        updateMessage("Replaying " + journal.getFileName());
+        // Edits saved after the snapshot.
+        UndoJournal.replay(bin, journal, new UndoDriver(stack));
+        updateProgress(3, 3);
+        return new Restored(stack, state);
+    }
+
+    /**
+     * Stacks stored as {@link UndoPacket} by earlier versions.
+     * <p>The stored subject is applied whatever its version, migrated to this one. Before the migrations were
+     * registered only version 1 subjects were applied, and a stack of any other version started from the initial
+     * state, which its commands do not continue. A version newer than this build now fails the restore.
+     */
+    private Restored restorePacket() throws Exception {
+        updateMessage("Reading " + packet.getFileName());
+        long size = Files.size(packet);
+        byte[] bytes = new byte[(int) size];
+        int read = 0;
+        try (InputStream in = Files.newInputStream(packet)) {
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, Math.min(CHUNK, bytes.length - read));
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+                updateProgress(read, size);
+                if (isCancelled()) {
+                    return null;
+                }
+            }
+        }
+        updateMessage("Decoding " + packet.getFileName());
+        updateProgress(-1, 1);
+        ShapeState state = new ShapeState();
+        UndoStack stack = UndoPacket
+                // Check whether we got appropriate stack
+                .peek(new String(bytes, 0, read), subjInfo -> IDS_STACK.equals(subjInfo.id))
+                // Manual restoring (because we store non-serializable type)
+                .restore((processedSubj, subjInfo) -> {
+                    // Second - migration from the stored version to V2!
+                    state.set(MIGRATIONS.migrate(IDS_STACK, subjInfo.version, ShapeState.fromSubject(processedSubj)));
+                    return subj;
+                }).stack((s, subjInfo) -> state.register(s, new Resources_V2()));
+        return stack != null ? new Restored(stack, state) : null;
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.gdetotut.samples.jundo.javafx;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.codec.LazyCommand;
+import com.gdetotut.samples.jundo.javafx.io.BinaryUndoFile;
+import com.gdetotut.samples.jundo.javafx.io.PagedHistory;
+import com.gdetotut.samples.jundo.javafx.io.SpillStore;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import javafx.scene.paint.Color;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CheckpointsTest {
+
+    private static final String ID = "checkpoints-test";
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    /**
+     * Reverting across spilled commands reads none of them: the state comes from the clean checkpoint.
+     */
+    @Test
+    public void revertSkipsSpilledCommands() throws Exception {
+        ShapeState state = new ShapeState(Color.RED, 0, 200, 200);
+        UndoStack stack = stackOf(state);
+        UndoDriver driver = new UndoDriver(stack);
+        SpillStore store = new SpillStore(dir.getRoot().toPath().resolve("undo.spill"), 1);
+        PagedHistory history = new PagedHistory(driver, store, 10, 5);
+        Checkpoints checkpoints = new Checkpoints(driver, state, null, 1_000);
+        driver.push(radius(stack, 0, 1));
+        driver.setClean();
+        for (int i = 1; i < 200; ++i) {
+            driver.push(radius(stack, i, i + 1));
+        }
+        assertEquals(190, history.getSpilledTo());
+        long reads = store.getReadCount();
+
+        ShapeState saved = checkpoints.revertToClean();
+        assertEquals(1, saved.radius.get(), 0);
+        assertEquals(1, stack.getIdx());
+        assertEquals(reads, store.getReadCount());
+        assertFalse(ShapeContext.isDetached(stack));
+
+        // Stepping still reads them.
+        state.set(saved);
+        driver.redo();
+        assertEquals(2, state.radius.get(), 0);
+        assertEquals(reads + 1, store.getReadCount());
+        history.close();
+    }
+
+    /**
+     * A jump over lazily restored commands decodes only what the target state needs, here nothing.
+     */
+    @Test
+    public void jumpSkipsRestoredCommands() throws Exception {
+        ShapeState state = new ShapeState(Color.RED, 0, 200, 200);
+        UndoStack stack = stackOf(state);
+        for (int i = 0; i < 300; ++i) {
+            stack.push(radius(stack, i, i + 1));
+        }
+        Path bin = dir.getRoot().toPath().resolve("undo.bin");
+        Files.write(bin, BinaryUndoFile.encode(stack, ID, 1, state));
+
+        UndoStack copy = BinaryUndoFile.open(bin).restoreLazy(ID);
+        ShapeState restored = new ShapeState(Color.RED, 300, 200, 200);
+        restored.register(copy, new Resources_V1());
+        LazyCommand.Source source = ((LazyCommand) copy.getCommand(0)).getSource();
+        Checkpoints checkpoints = new Checkpoints(new UndoDriver(copy), restored, null, 1_000);
+
+        assertEquals(0, checkpoints.jumpTo(0).radius.get(), 0);
+        // Those were decoded for the state at 0, not for the move.
+        assertEquals(300, source.getDecodedCount());
+        source.release(0);
+
+        assertEquals(300, checkpoints.jumpTo(300).radius.get(), 0);
+        assertEquals(300, copy.getIdx());
+        assertEquals(0, source.getDecodedCount());
+    }
+
+    private static UndoStack stackOf(ShapeState state) {
+        UndoStack stack = new UndoStack(ID, null);
+        state.register(stack, new Resources_V1());
+        return stack;
+    }
+
+    private static DoublePropertyUndo radius(UndoStack stack, double from, double to) {
+        DoublePropertyUndo cmd = new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, from, to);
+        cmd.seal();
+        return cmd;
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.gdetotut.samples.jundo.javafx;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import javafx.scene.paint.Color;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandIngestTest {
+
+    private ShapeState state;
+    private UndoDriver driver;
+
+    @Before
+    public void setUp() {
+        state = new ShapeState();
+        UndoStack stack = new UndoStack(state, null);
+        state.register(stack, new Resources_V1());
+        driver = new UndoDriver(stack);
+    }
+
+    /**
+     * Values offered before the stack exists wait in the ring and become one command per property on attach.
+     */
+    @Test
+    public void valuesWaitForAttach() {
+        // Drains run at once, as if every offer were followed by a pulse.
+        CommandIngest ingest = new CommandIngest(4, Runnable::run);
+        assertTrue(ingest.offer(DoubleProp.X, 210));
+        assertTrue(ingest.offer(DoubleProp.X, 220));
+        assertTrue(ingest.offer(Color.BLUE));
+        assertTrue(ingest.offer(DoubleProp.RADIUS, 45));
+        assertFalse(ingest.offer(DoubleProp.Y, 1));
+        assertEquals(1, ingest.getRejected());
+
+        ingest.attach(driver, Runnable::run);
+        assertEquals(3, driver.getStack().count());
+        assertEquals(new ShapeState(Color.BLUE, 45, 220, 200), state);
+
+        assertTrue(ingest.offer(DoubleProp.Y, 190));
+        assertEquals(190, state.y.get(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void attachTwiceIsRejected() {
+        CommandIngest ingest = new CommandIngest(driver, 4, Runnable::run, Runnable::run);
+        ingest.attach(driver, Runnable::run);
+    }
+
+}
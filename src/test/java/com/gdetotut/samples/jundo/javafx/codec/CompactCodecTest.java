@@ -0,0 +1,206 @@
+package com.gdetotut.samples.jundo.javafx.codec;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.MoveUndo;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompactCodecTest {
+
+    private final UndoStack stack = new UndoStack("codec-test", null);
+
+    @Test
+    public void quantizedValuesRoundTrip() throws Exception {
+        List<UndoCommand> commands = new ArrayList<>();
+        commands.add(radius(40, 41));
+        commands.add(radius(41, 40.5));
+        commands.add(radius(40.5, 40.5 + 1.0 / CompactCodec.QUANT));
+        commands.add(radius(3, -7.25));
+        commands.add(move(200, 200, 215, 180));
+        commands.add(move(215, 180, 215, 180));
+        commands.add(radius(0, 0));
+        assertRoundTrip(commands);
+    }
+
+    @Test
+    public void rawValuesRoundTrip() throws Exception {
+        List<UndoCommand> commands = new ArrayList<>();
+        commands.add(radius(40, 40.1));
+        commands.add(radius(40.1, Math.PI));
+        commands.add(radius(1e300, -1e300));
+        commands.add(radius(Double.MIN_VALUE, Double.MAX_VALUE));
+        commands.add(radius((double) (1L << 52), (double) (1L << 53)));
+        commands.add(radius(Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY));
+        commands.add(move(0.3, 0.7, 1e-9, 123456.789));
+        assertRoundTrip(commands);
+    }
+
+    @Test
+    public void negativeZeroAndNaNRoundTrip() throws Exception {
+        List<UndoCommand> commands = new ArrayList<>();
+        // -0.0 == 0.0 and quantizes to 0, so the sign would be lost without the raw fallback.
+        commands.add(radius(0, -0.0));
+        commands.add(radius(-0.0, 0));
+        commands.add(radius(-0.0, -0.0));
+        commands.add(radius(Double.NaN, 1));
+        commands.add(radius(1, Double.NaN));
+        commands.add(radius(Double.NaN, Double.NaN));
+        commands.add(move(-0.0, Double.NaN, Double.NaN, -0.0));
+        assertRoundTrip(commands);
+    }
+
+    @Test
+    public void colorsRoundTrip() throws Exception {
+        List<UndoCommand> commands = new ArrayList<>();
+        commands.add(new ColorUndo(stack, null, 0, 0xFF0000FF, 0x0000FFFF));
+        commands.add(new ColorUndo(stack, null, 0, 0x0000FFFF, 0x0000FFFF));
+        commands.add(new ColorUndo(stack, null, 7, 0x12345678, 0));
+        commands.add(new ColorUndo(stack, null, Integer.MAX_VALUE, -1, 0x80000000));
+        assertRoundTrip(commands);
+    }
+
+    /**
+     * Prediction restarts at each block, so the first command of a block must not depend on the last of the
+     * previous one; sizes around {@link CompactCodec#BLOCK} hit the partial and the exactly full last block.
+     */
+    @Test
+    public void blockBoundariesRoundTrip() throws Exception {
+        int[] sizes = {1, CompactCodec.BLOCK - 1, CompactCodec.BLOCK, CompactCodec.BLOCK + 1,
+                2 * CompactCodec.BLOCK, 2 * CompactCodec.BLOCK + 1};
+        Random rnd = new Random(42);
+        for (int size : sizes) {
+            List<UndoCommand> commands = new ArrayList<>();
+            double r = 40;
+            double x = 200;
+            double y = 200;
+            for (int i = 0; i < size; ++i) {
+                switch (rnd.nextInt(3)) {
+                    case 0:
+                        double nr = rnd.nextBoolean() ? r + rnd.nextInt(9) - 4 : rnd.nextDouble() * 100;
+                        commands.add(radius(r, nr));
+                        r = nr;
+                        break;
+                    case 1:
+                        double nx = x + rnd.nextInt(21) - 10;
+                        double ny = rnd.nextBoolean() ? y + rnd.nextInt(21) - 10 : rnd.nextDouble() * 400;
+                        commands.add(move(x, y, nx, ny));
+                        x = nx;
+                        y = ny;
+                        break;
+                    default:
+                        commands.add(new ColorUndo(stack, null, 0, rnd.nextInt(), rnd.nextInt()));
+                }
+            }
+            assertEquals((size + CompactCodec.BLOCK - 1) / CompactCodec.BLOCK, assertRoundTrip(commands));
+        }
+    }
+
+    /**
+     * Small steps of whole values are cheaper than raw doubles, and repeated values take no bytes.
+     */
+    @Test
+    public void quantizedIsSmallerThanRaw() throws Exception {
+        List<UndoCommand> whole = new ArrayList<>();
+        List<UndoCommand> fraction = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            whole.add(radius(40 + i, 41 + i));
+            fraction.add(radius(40.1 + i, 41.1 + i));
+        }
+        int wholeSize = encode(whole).length;
+        int fractionSize = encode(fraction).length;
+        assertTrue(wholeSize + " < " + fractionSize, wholeSize < fractionSize);
+        // Block length, the first old value (40 * QUANT from 0), then head, resId and two bytes of delta each;
+        // the other old values are predicted.
+        assertEquals(4 + 3 + 100 * 4, wholeSize);
+    }
+
+    @Test
+    public void unsupportedCommandIsRejected() throws Exception {
+        try {
+            new CompactCodec.Encoder().write(new DataOutputStream(new ByteArrayOutputStream()),
+                    new UndoCommand(stack, "other", null));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        assertFalse("encoded", true);
+    }
+
+    private DoublePropertyUndo radius(double from, double to) {
+        return new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, from, to);
+    }
+
+    private MoveUndo move(double oldX, double oldY, double newX, double newY) {
+        return new MoveUndo(stack, null, 2, oldX, oldY, newX, newY);
+    }
+
+    private static byte[] encode(List<UndoCommand> commands) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompactCodec.BlockWriter writer = new CompactCodec.BlockWriter(new DataOutputStream(bytes));
+        for (UndoCommand cmd : commands) {
+            writer.write(cmd);
+        }
+        writer.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the blocks the way {@code BinaryUndoFile} does and compares bit for bit.
+     *
+     * @return Number of blocks.
+     */
+    private int assertRoundTrip(List<UndoCommand> commands) throws Exception {
+        ByteBuffer in = ByteBuffer.wrap(encode(commands));
+        CompactCodec.Decoder decoder = new CompactCodec.Decoder();
+        int blocks = 0;
+        int blockEnd = 0;
+        for (int i = 0; i < commands.size(); ++i) {
+            if (i % CompactCodec.BLOCK == 0) {
+                assertEquals("block " + blocks + " length", blockEnd, in.position());
+                int length = in.getInt();
+                blockEnd = in.position() + length;
+                decoder.reset();
+                ++blocks;
+            }
+            assertEquals("command " + i, describe(commands.get(i)), describe(decoder.read(in, stack)));
+        }
+        assertEquals(blockEnd, in.position());
+        assertFalse(in.hasRemaining());
+        return blocks;
+    }
+
+    private static String describe(UndoCommand cmd) {
+        if (cmd instanceof ColorUndo) {
+            ColorUndo c = (ColorUndo) cmd;
+            return "color " + c.getResId() + " " + c.getOldRgba() + " " + c.getNewRgba();
+        } else if (cmd instanceof DoublePropertyUndo) {
+            DoublePropertyUndo d = (DoublePropertyUndo) cmd;
+            return d.getProp() + " " + d.getResId() + " " + bits(d.getOldV()) + " " + bits(d.getNewV());
+        } else {
+            MoveUndo m = (MoveUndo) cmd;
+            return "move " + m.getResId() + " " + bits(m.getOldX()) + " " + bits(m.getOldY())
+                    + " " + bits(m.getNewX()) + " " + bits(m.getNewY());
+        }
+    }
+
+    /**
+     * Tells -0.0 from 0.0; NaNs compare as one, as {@link java.io.DataOutput#writeDouble} writes them.
+     */
+    private static String bits(double v) {
+        return v + "/" + Long.toHexString(Double.doubleToLongBits(v));
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.gdetotut.samples.jundo.javafx.codec;
+
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import javafx.scene.paint.Color;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SubjectCodecTest {
+
+    /**
+     * The map of JSON strings the {@code UndoPacket} builds stored.
+     */
+    @Test
+    public void legacyMapIsRead() {
+        String json = "{\"color\":\"\\\"#0000ffff\\\"\",\"radius\":\"45.5\",\"x\":\"210.0\",\"y\":\"190.0\"}";
+        assertEquals(new ShapeState(Color.BLUE, 45.5, 210, 190), SubjectCodec.fromJson(json));
+    }
+
+    @Test
+    public void flatObjectIsRead() {
+        String json = "{\"color\":\"#ff0000ff\",\"radius\":40.0,\"x\":200,\"y\":200.0,\"extra\":[1]}";
+        assertEquals(new ShapeState(), SubjectCodec.fromJson(json));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingPropertyIsRejected() {
+        SubjectCodec.fromJson("{\"color\":\"#ff0000ff\",\"radius\":40.0,\"x\":200.0}");
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class AsyncSaverTest {
+
+    private static final String ID = "saver-test";
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    /**
+     * Closing lets the requested saves finish, and no more are taken.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void closeFinishesPendingSaves() throws Exception {
+        ShapeState state = new ShapeState();
+        UndoStack stack = new UndoStack(ID, null);
+        state.register(stack, new Resources_V1());
+        UndoDriver driver = new UndoDriver(stack);
+        Path bin = dir.getRoot().toPath().resolve("undo.bin");
+        UndoJournal journal = new UndoJournal(driver, bin, dir.getRoot().toPath().resolve("undo.journal"), () -> {
+            ShapeState subj = new ShapeState();
+            subj.set(state);
+            return StackSnapshot.take(driver, subj, ID, 1);
+        });
+        // Callbacks are serialized on one thread, standing in for the FX thread.
+        AsyncSaver saver = new AsyncSaver(journal, runnable -> {
+            synchronized (AsyncSaverTest.class) {
+                runnable.run();
+            }
+        });
+        CountDownLatch saved = new CountDownLatch(2);
+        synchronized (AsyncSaverTest.class) {
+            driver.push(new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, 40, 50));
+            saver.save(saved::countDown, Throwable::printStackTrace);
+            driver.push(new DoublePropertyUndo(stack, null, 2, DoubleProp.X, 200, 210));
+            saver.save(saved::countDown, Throwable::printStackTrace);
+            saver.close();
+        }
+        assertTrue(saved.await(10, TimeUnit.SECONDS));
+        assertTrue(Files.exists(bin));
+        synchronized (AsyncSaverTest.class) {
+            saver.save(null, null);
+        }
+    }
+
+}
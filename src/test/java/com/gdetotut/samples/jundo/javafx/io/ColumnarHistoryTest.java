@@ -0,0 +1,87 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.ShapeContext;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ColumnarHistoryTest {
+
+    private ShapeState state;
+    private UndoStack stack;
+
+    @Before
+    public void setUp() {
+        state = new ShapeState();
+        stack = new UndoStack(state, null);
+        state.register(stack, new Resources_V1());
+    }
+
+    /**
+     * The stack kept the two radius steps apart, so a push after import must not fold into the last of them.
+     */
+    @Test
+    public void importedRowsAreNotMergedInto() {
+        DoublePropertyUndo sealed = radius(40, 50);
+        stack.push(sealed);
+        sealed.seal();
+        stack.push(radius(50, 60));
+        assertEquals(2, stack.count());
+
+        ColumnarHistory history = ColumnarHistory.of(stack, ShapeContext.of(stack));
+        history.pushValue(1, DoubleProp.RADIUS, 60, 70);
+        assertEquals(3, history.size());
+        history.undo();
+        assertEquals(60, state.radius.get(), 0);
+    }
+
+    /**
+     * Rows pushed after the import merge as usual, even where imported ones were dropped.
+     */
+    @Test
+    public void newRowsMerge() {
+        stack.push(radius(40, 50));
+        stack.push(radius(50, 60));
+        ColumnarHistory history = ColumnarHistory.of(stack, ShapeContext.of(stack));
+        assertEquals(1, history.size());
+
+        history.undo();
+        history.pushValue(1, DoubleProp.RADIUS, 40, 45);
+        history.pushValue(1, DoubleProp.RADIUS, 45, 47);
+        assertEquals(1, history.size());
+        assertEquals(47, state.radius.get(), 0);
+        history.undo();
+        assertEquals(40, state.radius.get(), 0);
+    }
+
+    /**
+     * A merge drops the redo tail; a clean mark in it is gone.
+     */
+    @Test
+    public void mergeDropsCleanTail() {
+        ColumnarHistory history = new ColumnarHistory(ShapeContext.of(stack), 0);
+        history.pushValue(1, DoubleProp.RADIUS, 40, 50);
+        history.pushColor(0, 0xFF0000FF, 0x0000FFFF);
+        history.pushValue(1, DoubleProp.RADIUS, 50, 60);
+        history.setClean();
+        history.undo();
+        history.undo();
+        history.pushValue(1, DoubleProp.RADIUS, 50, 55);
+        assertEquals(1, history.size());
+        history.undo();
+        history.redo();
+        assertFalse(history.isClean());
+    }
+
+    private DoublePropertyUndo radius(double from, double to) {
+        return new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, from, to);
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.MoveUndo;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import javafx.scene.paint.Color;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryCompactorTest {
+
+    private static final Color[] COLORS = {Color.RED, Color.BLUE, Color.GREEN};
+
+    /**
+     * A→B→A and no-op commands disappear, a chain broken by a color change becomes one command per property.
+     */
+    @Test
+    public void netChangeIsKept() {
+        ShapeState state = new ShapeState();
+        UndoStack stack = stackOf(state);
+        stack.push(new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, 40, 50));
+        stack.push(new ColorUndo(stack, null, 0, Color.RED, Color.BLUE));
+        stack.push(new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, 50, 60));
+        stack.push(new MoveUndo(stack, null, 2, 200, 200, 210, 190));
+        stack.push(new MoveUndo(stack, null, 2, 210, 190, 200, 200));
+        stack.push(new DoublePropertyUndo(stack, null, 1, DoubleProp.X, 200, 200));
+
+        UndoStack compact = assertSameStates(stack, state);
+        assertEquals(2, compact.count());
+    }
+
+    @Test
+    public void statesAtIndexAndCleanAreKept() {
+        for (int seed = 0; seed < 200; ++seed) {
+            Random rnd = new Random(seed);
+            ShapeState state = new ShapeState();
+            UndoStack stack = stackOf(state);
+            int steps = rnd.nextInt(60);
+            for (int i = 0; i < steps; ++i) {
+                int op = rnd.nextInt(10);
+                if (op < 2 && stack.canUndo()) {
+                    stack.undo();
+                } else if (op < 3 && stack.canRedo()) {
+                    stack.redo();
+                } else if (op < 4) {
+                    stack.setClean();
+                } else {
+                    push(stack, state, rnd);
+                }
+            }
+            assertSameStates(stack, state);
+        }
+    }
+
+    private static UndoStack stackOf(ShapeState state) {
+        UndoStack stack = new UndoStack(state, null);
+        state.register(stack, new Resources_V1());
+        return stack;
+    }
+
+    private static void push(UndoStack stack, ShapeState state, Random rnd) {
+        switch (rnd.nextInt(4)) {
+            case 0:
+                stack.push(new ColorUndo(stack, null, 0, state.color.get(), COLORS[rnd.nextInt(COLORS.length)]));
+                break;
+            case 1:
+                // Few values, so chains often come back to where they started.
+                stack.push(new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, state.radius.get(),
+                        40 + rnd.nextInt(3)));
+                break;
+            case 2:
+                stack.push(new DoublePropertyUndo(stack, null, 1, DoubleProp.X, state.x.get(),
+                        200 + rnd.nextInt(3)));
+                break;
+            default:
+                stack.push(new MoveUndo(stack, null, 2, state.x.get(), state.y.get(),
+                        200 + rnd.nextInt(3), 200 + rnd.nextInt(3) * 0.5));
+        }
+    }
+
+    /**
+     * Compacts the stack and walks both to the current index, the clean mark, the start and the end.
+     */
+    private static UndoStack assertSameStates(UndoStack stack, ShapeState state) {
+        int idx = stack.getIdx();
+        int cleanIdx = stack.getCleanIdx();
+        boolean clean = stack.isClean();
+
+        ShapeState copy = new ShapeState();
+        copy.set(state);
+        UndoStack compact = HistoryCompactor.compact(stack, copy);
+        copy.register(compact, new Resources_V1());
+        assertTrue(compact.count() <= stack.count());
+
+        assertEquals(state, copy);
+        // It may also become clean: a current state equal to the saved one is merged with it.
+        assertTrue(!clean || compact.isClean());
+        int newIdx = compact.getIdx();
+
+        if (cleanIdx >= 0 && cleanIdx <= stack.count()) {
+            stack.setIndex(cleanIdx);
+            compact.setIndex(compact.getCleanIdx());
+            assertEquals(state, copy);
+        }
+        stack.setIndex(0);
+        compact.setIndex(0);
+        assertEquals(state, copy);
+        stack.setIndex(stack.count());
+        compact.setIndex(compact.count());
+        assertEquals(state, copy);
+
+        stack.setIndex(idx);
+        compact.setIndex(newIdx);
+        assertEquals(state, copy);
+        return compact;
+    }
+
+}
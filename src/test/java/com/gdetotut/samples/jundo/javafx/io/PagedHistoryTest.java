@@ -0,0 +1,104 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.codec.LazyCommand;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import javafx.scene.paint.Color;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PagedHistoryTest {
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    /**
+     * Spilled commands run as before; closing the history closes the spill file.
+     */
+    @Test(expected = ClosedChannelException.class)
+    public void spillsAndClosesStore() throws Exception {
+        ShapeState state = new ShapeState();
+        UndoStack stack = new UndoStack("paged-test", null);
+        state.register(stack, new Resources_V1());
+        UndoDriver driver = new UndoDriver(stack);
+        SpillStore store = new SpillStore(dir.getRoot().toPath().resolve("undo.spill"), 1);
+        PagedHistory history = new PagedHistory(driver, store, 4, 2);
+        for (int i = 0; i < 20; ++i) {
+            DoublePropertyUndo cmd = new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, i, i + 1);
+            cmd.seal();
+            driver.push(cmd);
+        }
+        assertTrue(history.getSpilledTo() > 0);
+
+        driver.setIndex(1);
+        assertEquals(1, state.radius.get(), 0);
+        driver.setIndex(20);
+        assertEquals(20, state.radius.get(), 0);
+
+        history.close();
+        DoublePropertyUndo more = new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, 0, 1);
+        store.write(Collections.singletonList(more), new int[1]);
+    }
+
+    /**
+     * Decoded restored commands count against the budget, and the restored ones are not scanned for spilling.
+     */
+    @Test
+    public void restoredCommandsAreReleased() throws Exception {
+        ShapeState state = new ShapeState(Color.RED, 0, 200, 200);
+        UndoStack stack = new UndoStack("paged-test", null);
+        state.register(stack, new Resources_V1());
+        for (int i = 0; i < 100; ++i) {
+            stack.push(radius(stack, i, i + 1));
+        }
+        Path bin = dir.getRoot().toPath().resolve("undo.bin");
+        Files.write(bin, BinaryUndoFile.encode(stack, "paged-test", 1, state));
+
+        UndoStack copy = BinaryUndoFile.open(bin).restoreLazy("paged-test");
+        ShapeState restored = new ShapeState(Color.RED, 100, 200, 200);
+        restored.register(copy, new Resources_V1());
+        UndoDriver driver = new UndoDriver(copy);
+        SpillStore store = new SpillStore(dir.getRoot().toPath().resolve("undo.spill"), 1);
+        PagedHistory history = new PagedHistory(driver, store, 10, 5);
+        assertEquals(100, history.getSpilledTo());
+        LazyCommand.Source source = ((LazyCommand) copy.getCommand(0)).getSource();
+
+        while (copy.canUndo()) {
+            driver.undo();
+            assertTrue(source.getDecodedCount() <= 10);
+        }
+        assertEquals(0, restored.radius.get(), 0);
+        driver.setIndex(100);
+        assertEquals(100, restored.radius.get(), 0);
+        assertEquals(10, source.getDecodedCount());
+
+        for (int i = 100; i < 108; ++i) {
+            driver.push(radius(copy, i, i + 1));
+        }
+        assertEquals(100, history.getSpilledTo());
+        assertEquals(2, source.getDecodedCount());
+        driver.undo();
+        assertEquals(107, restored.radius.get(), 0);
+        history.close();
+    }
+
+    private static DoublePropertyUndo radius(UndoStack stack, double from, double to) {
+        DoublePropertyUndo cmd = new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, from, to);
+        cmd.seal();
+        return cmd;
+    }
+
+}
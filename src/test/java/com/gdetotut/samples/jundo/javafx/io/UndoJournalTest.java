@@ -0,0 +1,207 @@
+package com.gdetotut.samples.jundo.javafx.io;
+
+import com.gdetotut.jundo.UndoCommand;
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.ColorUndo;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.codec.CommandCodec;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import javafx.scene.paint.Color;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class UndoJournalTest {
+
+    private static final String ID = "journal-test";
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private Path bin;
+    private Path log;
+
+    private ShapeState state;
+    private UndoStack stack;
+    private UndoDriver driver;
+    private UndoJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        bin = dir.getRoot().toPath().resolve("undo.bin");
+        log = dir.getRoot().toPath().resolve("undo.journal");
+        state = new ShapeState();
+        stack = new UndoStack(ID, null);
+        state.register(stack, new Resources_V1());
+        driver = new UndoDriver(stack);
+        journal = new UndoJournal(driver, bin, log, () -> {
+            ShapeState subj = new ShapeState();
+            subj.set(state);
+            return StackSnapshot.take(driver, subj, ID, 1);
+        });
+    }
+
+    /**
+     * A drag that merged into the top command of the snapshot must merge on replay too.
+     */
+    @Test
+    public void mergeIntoSnapshotTopIsReplayed() throws Exception {
+        driver.push(radius(40, 50));
+        journal.flush();
+        driver.push(radius(50, 60));
+        driver.push(new ColorUndo(stack, null, 0, Color.RED, Color.BLUE));
+        driver.undo();
+        journal.flush();
+        assertEquals(60, state.radius.get(), 0);
+
+        assertRestored(false);
+        assertRestored(true);
+    }
+
+    /**
+     * A push that did not merge, here because its command below was sealed as {@code UndoTree} does, must not merge
+     * on replay either.
+     */
+    @Test
+    public void appendOntoSealedCommandIsReplayed() throws Exception {
+        driver.push(radius(40, 50));
+        driver.setClean();
+        journal.flush();
+        DoublePropertyUndo sealed = radius(50, 60);
+        driver.push(sealed);
+        sealed.seal();
+        driver.push(radius(60, 70));
+        driver.undo();
+        journal.flush();
+        assertEquals(2, stack.getIdx());
+        assertEquals(60, state.radius.get(), 0);
+
+        assertRestored(false);
+        assertRestored(true);
+    }
+
+    /**
+     * A journal left from another snapshot of the same length, e.g. after a crash between the snapshot move and
+     * the journal rewrite, is not replayed.
+     */
+    @Test
+    public void journalOfOtherSnapshotIsIgnored() throws Exception {
+        driver.push(radius(40, 50));
+        journal.flush();
+        driver.push(radius(50, 60));
+        driver.push(new ColorUndo(stack, null, 0, Color.RED, Color.BLUE));
+        journal.flush();
+        assertEquals(2, UndoJournal.replay(bin, log, new UndoDriver(BinaryUndoFile.open(bin).restore(ID))));
+
+        byte[] other = Files.readAllBytes(bin);
+        // Same length, another command.
+        other[other.length - 1] ^= 1;
+        Files.write(bin, other);
+        assertFalse(UndoJournal.continues(bin, log));
+        assertEquals(0, UndoJournal.replay(bin, log, new UndoDriver(BinaryUndoFile.open(bin).restore(ID))));
+    }
+
+    /**
+     * Only the header with the checksum is accepted; one with the snapshot length alone would match a stale journal.
+     */
+    @Test
+    public void lengthOnlyHeaderIsIgnored() throws Exception {
+        driver.push(radius(40, 50));
+        journal.flush();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(log))) {
+            out.writeInt(0x554A4E4C);
+            out.writeByte(1);
+            out.writeLong(Files.size(bin));
+            out.writeByte(UndoJournal.OP_CLEAN);
+        }
+        assertFalse(UndoJournal.continues(bin, log));
+        assertEquals(0, UndoJournal.replay(bin, log, new UndoDriver(BinaryUndoFile.open(bin).restore(ID))));
+    }
+
+    /**
+     * A push without its outcome can not be replayed faithfully, so op 1 is not a push any more.
+     */
+    @Test(expected = IOException.class)
+    public void pushWithoutOutcomeIsRejected() throws Exception {
+        driver.push(radius(40, 50));
+        journal.flush();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(log, StandardOpenOption.APPEND))) {
+            out.writeByte(1);
+            CommandCodec.write(out, radius(50, 60));
+        }
+        UndoJournal.replay(bin, log, new UndoDriver(BinaryUndoFile.open(bin).restore(ID)));
+    }
+
+    /**
+     * Random edits, drags, seals and saves: the restored snapshot plus the journal must match the live stack,
+     * whatever was in the snapshot and whatever was only journaled.
+     */
+    @Test
+    public void randomEditsAreReplayed() throws Exception {
+        for (int seed = 0; seed < 100; ++seed) {
+            Files.deleteIfExists(bin);
+            Files.deleteIfExists(log);
+            setUp();
+            Random rnd = new Random(seed);
+            journal.setCompactThreshold(1 + rnd.nextInt(20));
+            for (int i = 0; i < 80; ++i) {
+                int op = rnd.nextInt(20);
+                if (op < 3) {
+                    driver.undo();
+                } else if (op < 4) {
+                    driver.redo();
+                } else if (op < 5) {
+                    driver.setClean();
+                } else if (op < 7) {
+                    journal.flush();
+                } else if (op < 8 && stack.getIdx() > 0) {
+                    UndoCommand top = stack.getCommand(stack.getIdx() - 1);
+                    if (top instanceof DoublePropertyUndo) {
+                        ((DoublePropertyUndo) top).seal();
+                    }
+                } else if (op < 10) {
+                    Color color = rnd.nextBoolean() ? Color.RED : Color.BLUE;
+                    driver.push(new ColorUndo(stack, null, 0, state.color.get(), color));
+                } else {
+                    // Runs of radius pushes merge like a drag.
+                    driver.push(radius(state.radius.get(), 40 + rnd.nextInt(50)));
+                }
+            }
+            journal.flush();
+
+            assertRestored(false);
+            assertRestored(true);
+        }
+    }
+
+    private DoublePropertyUndo radius(double from, double to) {
+        return new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, from, to);
+    }
+
+    private void assertRestored(boolean lazy) throws Exception {
+        BinaryUndoFile file = BinaryUndoFile.open(bin);
+        ShapeState restored = file.readSubject();
+        UndoStack copy = lazy ? file.restoreLazy(ID) : file.restore(ID);
+        restored.register(copy, new Resources_V1());
+        UndoJournal.replay(bin, log, new UndoDriver(copy));
+        assertEquals(state, restored);
+        assertEquals(stack.count(), copy.count());
+        assertEquals(stack.getIdx(), copy.getIdx());
+        assertEquals(stack.isClean(), copy.isClean());
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.gdetotut.samples.jundo.javafx.metrics;
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+public class UndoMetricsTest {
+
+    /**
+     * A tab recreated under the same name gets its own MBean, and the replaced one goes away.
+     */
+    @Test
+    public void sameNameRegistersTwiceAndUnregisters() throws Exception {
+        ObjectName pattern = new ObjectName("com.gdetotut.samples.jundo:type=UndoMetrics,name="
+                + ObjectName.quote("metrics-test") + ",*");
+        UndoMetrics first = new UndoMetrics().register("metrics-test");
+        UndoMetrics second = new UndoMetrics().register("metrics-test");
+        assertEquals(2, registered(pattern));
+        first.unregister();
+        assertEquals(1, registered(pattern));
+        first.unregister();
+        second.unregister();
+        assertEquals(0, registered(pattern));
+    }
+
+    private static int registered(ObjectName pattern) {
+        return ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.gdetotut.samples.jundo.javafx.tools;
+
+import com.gdetotut.jundo.UndoStack;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoubleProp;
+import com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.DoublePropertyUndo;
+import com.gdetotut.samples.jundo.javafx.UndoDriver;
+import com.gdetotut.samples.jundo.javafx.io.BinaryUndoFile;
+import com.gdetotut.samples.jundo.javafx.io.StackSnapshot;
+import com.gdetotut.samples.jundo.javafx.io.UndoJournal;
+import com.gdetotut.samples.jundo.javafx.model.MigrationRegistry;
+import com.gdetotut.samples.jundo.javafx.model.ShapeState;
+import com.gdetotut.samples.jundo.javafx.v1.Resources_V1;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static com.gdetotut.samples.jundo.javafx.BaseTab.UndoBulk.IDS_STACK;
+import static org.junit.Assert.assertEquals;
+
+public class BatchMigratorTest {
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    /**
+     * The journal of a migrated file still applies to it.
+     */
+    @Test
+    public void journalFollowsMigratedFile() throws Exception {
+        Path bin = dir.getRoot().toPath().resolve("undo.bin");
+        Path log = dir.getRoot().toPath().resolve("undo.journal");
+        ShapeState state = new ShapeState();
+        UndoStack stack = new UndoStack(IDS_STACK, null);
+        state.register(stack, new Resources_V1());
+        UndoDriver driver = new UndoDriver(stack);
+        UndoJournal journal = new UndoJournal(driver, bin, log, () -> {
+            ShapeState subj = new ShapeState();
+            subj.set(state);
+            return StackSnapshot.take(driver, subj, IDS_STACK, 1);
+        });
+        driver.push(new DoublePropertyUndo(stack, null, 1, DoubleProp.RADIUS, 40, 50));
+        journal.flush();
+        driver.push(new DoublePropertyUndo(stack, null, 2, DoubleProp.X, 200, 10));
+        journal.flush();
+
+        MigrationRegistry registry = MigrationRegistry.standard();
+        assertEquals(BatchMigrator.Outcome.MIGRATED, new BatchMigrator(registry).migrate(bin));
+
+        BinaryUndoFile file = BinaryUndoFile.open(bin);
+        assertEquals(registry.latest(IDS_STACK), file.getVersion());
+        ShapeState restored = file.readSubject();
+        UndoStack copy = file.restore(IDS_STACK);
+        restored.register(copy, new Resources_V1());
+        assertEquals(1, UndoJournal.replay(bin, log, new UndoDriver(copy)));
+        assertEquals(state, restored);
+    }
+
+}